@@ -16,7 +16,7 @@
 package se.trixon.pacoma.collage;
 
 import java.awt.Rectangle;
-import java.util.LinkedList;
+import java.awt.geom.Rectangle2D;
 
 /**
  * Represents a cell in a column
@@ -38,16 +38,23 @@ public class Cell {
     |      |      |      | |h
     ---------------------- v
      */
+    private Column mColumn;
     private Extent mExtent;
-    private int mHeight;
-    private LinkedList<Column> mParents;
+    private double mHeight;
+    private int mIndex;
+    private Column mFirstParent;
     private Photo mPhoto;
+    /**
+     * The column to the right of the first one for an extended cell, otherwise null
+     */
+    private Column mSecondParent;
 
-    public Cell(Photo photo, LinkedList<Column> parents) {
-        mParents = parents;
+    public Cell(Photo photo, Column firstParent, Column secondParent) {
+        mFirstParent = firstParent;
+        mSecondParent = secondParent;
         mPhoto = photo;
         mExtent = null;
-        mHeight = (int) Math.round(getWidth() * getWantedRatio());
+        mHeight = getWidth() * getWantedRatio();
     }
 
     public Cell() {
@@ -61,15 +68,16 @@ public class Cell {
     public String toString() {
         String end = mExtent == null ? "]" : "--";
 
-        return String.format("[%d %d%s", getWidth(), getHeight(), end);
+        return String.format("[%d %d%s", (int) getWidth(), (int) getHeight(), end);
     }
 
     Cell getOrigin() {
         return null;
     }
 
-    void setParents(LinkedList<Column> parents) {
-        mParents = parents;
+    void setParents(Column firstParent, Column secondParent) {
+        mFirstParent = firstParent;
+        mSecondParent = secondParent;
     }
 
     /**
@@ -77,12 +85,7 @@ public class Cell {
      * @return the cell below this one
      */
     Cell getBottomNeighbor() {
-        try {
-            int indexThis = mParents.getFirst().getCells().indexOf(this);
-            return mParents.getFirst().getCells().get(indexThis + 1);
-        } catch (IndexOutOfBoundsException e) {
-            return null;
-        }
+        return mIndex < mColumn.getCells().size() - 1 ? mColumn.getCells().get(mIndex + 1) : null;
     }
 
     /**
@@ -93,64 +96,97 @@ public class Cell {
      *
      * @return
      */
-    private Rectangle getContentCoords() {
-        int x = 0, y = 0, w = 0, h = 0;
+    Rectangle2D.Double getContentCoords() {
+        return getContentCoords(getX(), getY(), getWidth(), getHeight(), getWantedRatio());
+    }
 
-        if (getWantedRatio() < getRatio()) {
-            //If the contained image is too thick to fit
-            h = getHeight();
-            w = (int) Math.round(getHeight() / getWantedRatio());
-            y = getY();
-            x = (int) Math.round(getX() - (w - getWidth()) / 2.0);
-        } else if (getWantedRatio() > getRatio()) {
-            //If the contained image is too tall to fit
-            w = getWidth();
-            h = (int) Math.round(getWidth() * getWantedRatio());
-            x = getX();
-            y = (int) Math.round(getY() - (h - getHeight()) / 2.0);
-        }
+    /**
+     *
+     * @return the area of the contained image that is cropped away by the cell
+     */
+    double getCroppedArea() {
+        return getCroppedArea(getPhoto());
+    }
 
-        return new Rectangle(x, y, w, h);
+    /**
+     * Returns the area that would be cropped away if photo was placed in this cell. It only
+     * depends on the cell size and the photo ratio, so it is O(1).
+     *
+     * @param photo
+     * @return
+     */
+    double getCroppedArea(Photo photo) {
+        return getCroppedArea(getWidth(), getHeight(), photo.getRatio());
     }
 
-    Extent getExtent() {
-        return mExtent;
+    /**
+     * Returns the content coordinates materialized at scale, see {@link #getPixelBounds(double)}.
+     *
+     * @param scale
+     * @return
+     */
+    Rectangle getContentPixelBounds(double scale) {
+        Rectangle2D.Double content = getContentCoords();
+
+        return snap(content.x, content.y, content.width, content.height, scale);
     }
 
-    private double getRatio() {
-        return 1.0 * getHeight() / getWidth();
+    Extent getExtent() {
+        return mExtent;
     }
 
+    /**
+     *
+     * @return the cell above this one
+     */
     Cell getTopNeighbor() {
-        try {
-            int indexThis = mParents.getFirst().getCells().indexOf(this);
-            return mParents.getFirst().getCells().get(indexThis - 1);
-        } catch (IndexOutOfBoundsException e) {
-            return null;
-        }
+        return mIndex > 0 ? mColumn.getCells().get(mIndex - 1) : null;
     }
 
     private double getWantedRatio() {
         return mPhoto.getRatio();
     }
 
-    private int getWidth() {
-        return mParents
-                .stream()
-                .mapToInt(Column::getWidth)
-                .sum();
+    double getWidth() {
+        return mSecondParent == null ? mFirstParent.getWidth() : mFirstParent.getWidth() + mSecondParent.getWidth();
+    }
+
+    double getX() {
+        return mFirstParent.getX();
     }
 
-    private int getX() {
-        return mParents.getFirst().getX();
+    /**
+     *
+     * @return the column holding this cell, which is the second parent for an extent
+     */
+    Column getColumn() {
+        return mColumn;
     }
 
-    int getHeight() {
+    double getHeight() {
         return mHeight;
     }
 
-    LinkedList<Column> getParents() {
-        return mParents;
+    /**
+     * Returns the cell's bounds materialized at scale, e.g. the pixel width of the output divided
+     * by the page width.
+     *
+     * The edges are rounded rather than the size, so adjacent cells share their edges without gaps
+     * or overlaps.
+     *
+     * @param scale
+     * @return
+     */
+    Rectangle getPixelBounds(double scale) {
+        return snap(getX(), getY(), getWidth(), getHeight(), scale);
+    }
+
+    /**
+     *
+     * @return the position of this cell in its column
+     */
+    int getIndex() {
+        return mIndex;
     }
 
     Photo getPhoto() {
@@ -162,20 +198,8 @@ public class Cell {
      *
      * It assumes that the cell is in a single column, so it is the previous cell's y + h.
      */
-    int getY() {
-        Cell prev = null;
-        for (Cell cell : mParents.getFirst().getCells()) {
-            if (cell == this) {
-                if (prev != null) {
-                    return prev.getY() + prev.getHeight();
-                } else {
-                    return 0;
-                }
-            }
-            prev = cell;
-        }
-
-        throw new IllegalAccessError("Should never reach thhis point");
+    double getY() {
+        return mColumn.getY(mIndex);
     }
 
     boolean isExtended() {
@@ -187,7 +211,14 @@ public class Cell {
     }
 
     void scale(double alpha) {
-        mHeight = (int) Math.round(mHeight * alpha);
+        mHeight *= alpha;
+
+        if (mColumn != null) {
+            mColumn.invalidateY(mIndex + 1);
+            if (mExtent != null) {
+                mExtent.getColumn().invalidateY(mExtent.getIndex() + 1);
+            }
+        }
     }
 
     void setExtent(Extent extent) {
@@ -197,6 +228,46 @@ public class Cell {
     void setPhoto(Photo photo) {
         mPhoto = photo;
     }
+
+    void setPosition(Column column, int index) {
+        mColumn = column;
+        mIndex = index;
+    }
+
+    static double getCroppedArea(double w, double h, double wantedRatio) {
+        if (wantedRatio < h / w) {
+            //If the contained image is too thick to fit
+            return h * h / wantedRatio - w * h;
+        } else {
+            //If the contained image is too tall to fit
+            return w * w * wantedRatio - w * h;
+        }
+    }
+
+    static Rectangle2D.Double getContentCoords(double x, double y, double w, double h, double wantedRatio) {
+        double ratio = h / w;
+
+        if (wantedRatio < ratio) {
+            //If the contained image is too thick to fit
+            double contentW = h / wantedRatio;
+            return new Rectangle2D.Double(x - (contentW - w) / 2.0, y, contentW, h);
+        } else if (wantedRatio > ratio) {
+            //If the contained image is too tall to fit
+            double contentH = w * wantedRatio;
+            return new Rectangle2D.Double(x, y - (contentH - h) / 2.0, w, contentH);
+        } else {
+            return new Rectangle2D.Double(x, y, w, h);
+        }
+    }
+
+    static Rectangle snap(double x, double y, double w, double h, double scale) {
+        int x0 = (int) Math.round(x * scale);
+        int y0 = (int) Math.round(y * scale);
+        int x1 = (int) Math.round((x + w) * scale);
+        int y1 = (int) Math.round((y + h) * scale);
+
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
 }
 /*
 class Cell(object):
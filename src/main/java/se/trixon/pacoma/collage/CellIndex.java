@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Spatial index of the cells of a page
+ *
+ * Columns are found by binary search over their x coordinates and cells by binary search over
+ * sorted, disjoint y intervals per column, so a lookup is O(log(cols) + log(cells)).
+ *
+ * @author Patrik Karlsson
+ */
+class CellIndex {
+
+    private final Cell[][] mCells;
+    private final double[][] mEnds;
+    private final double[][] mStarts;
+    private final double[] mXs;
+
+    CellIndex(ArrayList<Column> columns) {
+        int numOfCols = columns.size();
+        mCells = new Cell[numOfCols][];
+        mStarts = new double[numOfCols][];
+        mEnds = new double[numOfCols][];
+        mXs = new double[numOfCols + 1];
+
+        for (int c = 0; c < numOfCols; c++) {
+            Column column = columns.get(c);
+            mXs[c + 1] = mXs[c] + column.getWidth();
+
+            ArrayList<Cell> cells = column.getCells();
+            Cell[] indexCells = new Cell[cells.size()];
+            double[] starts = new double[cells.size()];
+            double[] ends = new double[cells.size()];
+            int size = 0;
+            double maxEnd = Double.NEGATIVE_INFINITY;
+
+            //Cells overlapping the ones above them are clipped, the upper cell wins
+            for (Cell cell : cells) {
+                double start = Math.max(cell.getY(), maxEnd);
+                double end = cell.getY() + cell.getHeight();
+                if (end > start) {
+                    indexCells[size] = cell.isExtension() ? cell.getOrigin() : cell;
+                    starts[size] = start;
+                    ends[size] = end;
+                    size++;
+                    maxEnd = end;
+                }
+            }
+
+            mCells[c] = Arrays.copyOf(indexCells, size);
+            mStarts[c] = Arrays.copyOf(starts, size);
+            mEnds[c] = Arrays.copyOf(ends, size);
+        }
+    }
+
+    /**
+     *
+     * @param x
+     * @param y
+     * @return the cell at the position, or null if there is none
+     */
+    Cell getCellAt(double x, double y) {
+        int c = floor(mXs, mXs.length - 1, x);
+        if (c < 0 || x >= mXs[c + 1]) {
+            return null;
+        }
+
+        int i = floor(mStarts[c], mStarts[c].length, y);
+        if (i < 0 || y >= mEnds[c][i]) {
+            return null;
+        }
+
+        return mCells[c][i];
+    }
+
+    /**
+     *
+     * @return the index of the last element less than or equal to key, or -1
+     */
+    private int floor(double[] values, int length, double key) {
+        int low = 0;
+        int high = length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return high;
+    }
+}
@@ -22,9 +22,14 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
@@ -39,15 +44,25 @@ public class Collage {
     private static final Gson sGson = new Gson();
     private Color mBorderColor;
     private double mBorderThickness;
+    private transient final ContentIndex mContentIndex = new ContentIndex();
     private Date mDate;
     private transient boolean mDirty = false;
+    private Layout.Engine mEngine = Layout.Engine.COLUMNS;
     private transient File mFile;
     private int mFileFormatVersion;
-    private final ArrayList<File> mFileList = new ArrayList<>();
+    /**
+     * Insertion ordered for O(1) add, remove and contains, serialized as a JSON array like the
+     * list it replaced
+     */
+    private final LinkedHashSet<File> mFileList = new LinkedHashSet<>();
     private int mHeight = 2480;
-    private transient int mHistoryIndex = 0;
     private String mName;
     private transient final HashSet<CollagePropertyChangeListener> mPropertyChangeListeners = new HashSet<>();
+    private transient UserCollage mUserCollage;
+    /**
+     * Directories kept in sync by a {@link FolderWatcher} while the collage is open
+     */
+    private final LinkedHashSet<File> mWatchedFolders = new LinkedHashSet<>();
     private int mWidth = 3508;
 
     public static Collage open(File file) throws IOException, JsonSyntaxException {
@@ -55,6 +70,9 @@ public class Collage {
 
         Collage collage = sGson.fromJson(json, Collage.class);
         collage.setFile(file);
+        collage.mFileList.forEach((listFile) -> {
+            collage.mContentIndex.add(listFile);
+        });
 
         if (collage.mFileFormatVersion != FILE_FORMAT_VERSION) {
             //TODO Handle file format version change
@@ -69,14 +87,86 @@ public class Collage {
         mBorderColor = Color.BLACK;
     }
 
-    public void addFile(File file) {
-        mFileList.add(file);
-        setDirty(true);
+    /**
+     * Add a photo, see {@link #addPhotos(List)}
+     *
+     * @param photo
+     * @return false if the file of the photo is already added
+     */
+    public boolean addPhoto(Photo photo) {
+        return addPhotos(Collections.singletonList(photo)).isEmpty();
+    }
+
+    /**
+     * Add probed photos, e.g. from a {@link PhotoIngester}, passed through
+     * {@link #filterDuplicates(List)} in the background first. If the collage has a layout, the
+     * photos are appended to it in place instead of it having to be regenerated.
+     *
+     * @param photos
+     * @return the photos whose files were already added
+     */
+    public ArrayList<Photo> addPhotos(List<Photo> photos) {
+        ArrayList<Photo> duplicates = new ArrayList<>();
+        for (Photo photo : photos) {
+            if (mFileList.add(photo.getFile())) {
+                mContentIndex.add(photo.getFile());
+                if (mUserCollage != null) {
+                    mUserCollage.addPhoto(photo);
+                }
+            } else {
+                duplicates.add(photo);
+            }
+        }
+
+        if (duplicates.size() < photos.size()) {
+            setDirty(true);
+        }
+
+        return duplicates;
+    }
+
+    /**
+     * Add the files without reading them, pass them through {@link #filterDuplicates(List)} in the
+     * background first to reject files with the same content as an added one
+     *
+     * This is meant for bulk imports. The layout isn't updated, the next regenerated one has the
+     * files, use {@link #addPhotos(List)} to add them to the current layout.
+     *
+     * @param files
+     * @return the files that were already added
+     */
+    public ArrayList<File> addFiles(List<File> files) {
+        ArrayList<File> duplicates = new ArrayList<>();
+        int size = mFileList.size();
+        for (File file : files) {
+            if (mFileList.add(file)) {
+                mContentIndex.add(file);
+            } else {
+                duplicates.add(file);
+            }
+        }
+
+        if (mFileList.size() > size) {
+            setDirty(true);
+        }
+
+        return duplicates;
     }
 
-    public void addFiles(List<File> files) {
-        mFileList.addAll(files);
+    /**
+     * Remember a directory to watch, it is saved with the collage
+     *
+     * @param dir
+     * @return false if the directory is already watched
+     */
+    public boolean addWatchedFolder(File dir) {
+        if (!mWatchedFolders.add(dir)) {
+            return false;
+        }
+
         setDirty(true);
+
+        return true;
     }
 
     public void addPropertyChangeListener(CollagePropertyChangeListener propertyChangeListener) {
@@ -86,6 +176,8 @@ public class Collage {
     public void clearFiles() {
         if (hasImages()) {
             mFileList.clear();
+            mContentIndex.clear();
+            mUserCollage = null;
             setDirty(true);
         }
     }
@@ -98,12 +190,60 @@ public class Collage {
         return mBorderThickness;
     }
 
+    /**
+     *
+     * @return the engine of the generated layouts, {@link Layout.Engine#COLUMNS} for collages
+     * saved without one
+     */
+    public Layout.Engine getEngine() {
+        return mEngine;
+    }
+
     public File getFile() {
         return mFile;
     }
 
+    public boolean containsFile(File file) {
+        return mFileList.contains(file);
+    }
+
+    /**
+     * Reject files with the same content as a file in the collage, or as an earlier file in the
+     * list. Blocks on I/O, call it from a background thread and add the returned files with
+     * {@link #addPhotos(List)} or {@link #addFiles(List)} on the EDT. Probe the files first, if
+     * that is to be done, since the returned files are reserved.
+     *
+     * The returned files are counted as added right away, so batches filtered concurrently, or
+     * before the previous batch has reached the EDT, don't let duplicates of each other through.
+     *
+     * @param files
+     * @return the files that are neither added nor duplicates, in the order of files
+     */
+    public ArrayList<File> filterDuplicates(List<File> files) {
+        ArrayList<File> uniqueFiles = new ArrayList<>(files.size());
+        for (File file : files) {
+            if (mContentIndex.addIfUnique(file)) {
+                uniqueFiles.add(file);
+            }
+        }
+
+        return uniqueFiles;
+    }
+
+    /**
+     * Returns a copy of the files, not the live list as before the files were kept in a set.
+     * Changing it doesn't change the collage, use {@link #addFiles(List)},
+     * {@link #removeFiles(Collection)} or {@link #retainFiles(Collection)} for that, they notify
+     * the listeners once per call.
+     *
+     * @return a copy of the files, in the order they were added
+     */
     public ArrayList<File> getFileList() {
-        return mFileList;
+        return new ArrayList<>(mFileList);
+    }
+
+    public int getNumOfFiles() {
+        return mFileList.size();
     }
 
     public int getHeight() {
@@ -111,17 +251,29 @@ public class Collage {
     }
 
     public int getHistoryIndex() {
-        return mHistoryIndex;
+        return mUserCollage == null ? 0 : mUserCollage.getHistoryIndex();
     }
 
     public int getHistorySize() {
-        return 7;
+        return mUserCollage == null ? 0 : mUserCollage.getHistorySize();
     }
 
     public String getName() {
         return mName;
     }
 
+    public UserCollage getUserCollage() {
+        return mUserCollage;
+    }
+
+    /**
+     *
+     * @return a copy of the watched directories, see {@link #addWatchedFolder(File)}
+     */
+    public ArrayList<File> getWatchedFolders() {
+        return new ArrayList<>(mWatchedFolders);
+    }
+
     public int getWidth() {
         return mWidth;
     }
@@ -134,20 +286,86 @@ public class Collage {
         return mDirty;
     }
 
-    public void nextHistory() {
-        mHistoryIndex++;
+    public boolean hasNextHistory() {
+        return mUserCollage != null && mUserCollage.canRedo();
+    }
 
+    public boolean hasPrevHistory() {
+        return mUserCollage != null && mUserCollage.canUndo();
+    }
+
+    public void nextHistory() {
+        if (hasNextHistory()) {
+            mUserCollage.redo();
+            notifyPropertyChangeListeners();
+        }
     }
 
     public void prevHistory() {
-        mHistoryIndex--;
+        if (hasPrevHistory()) {
+            mUserCollage.undo();
+            notifyPropertyChangeListeners();
+        }
     }
 
     public void removeFile(File file) {
         mFileList.remove(file);
+        mContentIndex.remove(file);
+        removeFromUserCollage(file);
         setDirty(true);
     }
 
+    /**
+     * Remove the files with a single notification, they are removed from the layout in place if
+     * possible
+     *
+     * @param files
+     * @return true if any file was removed
+     */
+    public boolean removeFiles(Collection<File> files) {
+        boolean changed = false;
+        for (File file : files) {
+            if (mFileList.remove(file)) {
+                mContentIndex.remove(file);
+                removeFromUserCollage(file);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            setDirty(true);
+        }
+
+        return changed;
+    }
+
+    /**
+     * Remove all files but these, with a single notification, they are removed from the layout in
+     * place if possible
+     *
+     * @param files
+     * @return true if any file was removed
+     */
+    public boolean retainFiles(Collection<File> files) {
+        Collection<File> retained = files instanceof Set ? files : new HashSet<>(files);
+        boolean changed = false;
+        for (Iterator<File> iterator = mFileList.iterator(); iterator.hasNext();) {
+            File file = iterator.next();
+            if (!retained.contains(file)) {
+                iterator.remove();
+                mContentIndex.remove(file);
+                removeFromUserCollage(file);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            setDirty(true);
+        }
+
+        return changed;
+    }
+
     public void removePropertyChangeListener(CollagePropertyChangeListener propertyChangeListener) {
         mPropertyChangeListeners.remove(propertyChangeListener);
     }
@@ -177,6 +395,14 @@ public class Collage {
         }
     }
 
+    public void setEngine(Layout.Engine engine) {
+        Layout.Engine oldValue = mEngine;
+        if (oldValue != engine) {
+            mEngine = engine;
+            setDirtyOr(oldValue != engine);
+        }
+    }
+
     public void setFile(File file) {
         mFile = file;
     }
@@ -193,6 +419,17 @@ public class Collage {
         mName = name;
     }
 
+    /**
+     * Set the collage whose layout history is browsed with {@link #nextHistory()} and
+     * {@link #prevHistory()}
+     *
+     * @param userCollage
+     */
+    public void setUserCollage(UserCollage userCollage) {
+        mUserCollage = userCollage;
+        notifyPropertyChangeListeners();
+    }
+
     public void setWidth(int width) {
         int oldValue = mWidth;
         if (oldValue != width) {
@@ -201,6 +438,54 @@ public class Collage {
         }
     }
 
+    /**
+     * Apply a batch of changes, e.g. from a {@link FolderWatcher}, with a single notification. The
+     * layout is updated in place if possible.
+     *
+     * @param added photos to add, already passed through {@link #filterDuplicates(List)}
+     * @param modified photos of files in the collage whose content has changed
+     * @param removed
+     */
+    void updateFiles(List<Photo> added, List<Photo> modified, List<File> removed) {
+        boolean changed = false;
+        for (File file : removed) {
+            if (mFileList.remove(file)) {
+                mContentIndex.remove(file);
+                removeFromUserCollage(file);
+                changed = true;
+            }
+        }
+
+        for (Photo photo : added) {
+            if (mFileList.add(photo.getFile())) {
+                mContentIndex.add(photo.getFile());
+                if (mUserCollage != null) {
+                    mUserCollage.addPhoto(photo);
+                }
+                changed = true;
+            }
+        }
+
+        boolean reload = false;
+        for (Photo photo : modified) {
+            if (mFileList.contains(photo.getFile())) {
+                mContentIndex.update(photo.getFile());
+                //The size may have changed, so the photo gets a new cell
+                if (mUserCollage != null && mUserCollage.removeFile(photo.getFile())) {
+                    mUserCollage.addPhoto(photo);
+                }
+                reload = true;
+            }
+        }
+
+        if (changed) {
+            setDirty(true);
+        } else if (reload) {
+            //Modified only, the photos have to be reloaded
+            notifyPropertyChangeListeners();
+        }
+    }
+
     private void notifyPropertyChangeListeners() {
         mPropertyChangeListeners.forEach((propertyChangeListener) -> {
             try {
@@ -211,6 +496,12 @@ public class Collage {
         });
     }
 
+    private void removeFromUserCollage(File file) {
+        if (mUserCollage != null) {
+            mUserCollage.removeFile(file);
+        }
+    }
+
     private void setDirty(boolean dirty) {
         mDirty = dirty;
         notifyPropertyChangeListeners();
@@ -15,6 +15,8 @@
  */
 package se.trixon.pacoma.collage;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.stream.Collectors;
 
@@ -39,14 +41,22 @@ public class Column {
     |      |------- v
     --------
      */
-    private final LinkedList<Cell> mCells = new LinkedList<>();
+    private static final double EPSILON = 1E-9;
+    private final ArrayList<Cell> mCells = new ArrayList<>();
+    private int mIndex;
+    /*
+    Cached y coordinates of the cells, entries below mNumOfValidY are up to date.
+     */
+    private int mNumOfValidY = 0;
     private final Page mParent;
-    private final LinkedList<Column> mParentColumns;
-    private int mWidth;
+    private final ArrayList<Column> mParentColumns;
+    private double mWidth;
+    private double[] mYs = new double[16];
 
-    Column(Page parent, int columnWidth) {
+    Column(Page parent, int index, double columnWidth) {
         mParent = parent;
         mParentColumns = mParent.getColumns();
+        mIndex = index;
         mWidth = columnWidth;
     }
 
@@ -61,19 +71,37 @@ public class Column {
                 .collect(Collectors.joining("\n"));
     }
 
+    /**
+     * Append a cell to the bottom of the column
+     *
+     * @param cell
+     */
+    void addCell(Cell cell) {
+        cell.setPosition(this, mCells.size());
+        mCells.add(cell);
+
+        if (mCells.size() > mYs.length) {
+            mYs = Arrays.copyOf(mYs, 2 * mYs.length);
+        }
+    }
+
     /**
      * Set the column's height to a given value by resizing cells
      *
+     * Groups that already fit are left untouched.
+     *
      * @param targetHeight
+     * @return true if an extended cell was resized, the column to the right must then be adjusted
+     * too
      */
-    void adjustHeight(int targetHeight) {
+    boolean adjustHeight(double targetHeight) {
         class Group {
 
-            private final int y;
-            private int h;
+            private final double y;
+            private double h;
             private final LinkedList<Cell> cells = new LinkedList<>();
 
-            public Group(int y) {
+            public Group(double y) {
                 this.y = y;
                 h = 0;
             }
@@ -94,22 +122,43 @@ public class Column {
         groups.getLast().h = targetHeight - groups.getLast().y;
 
         //Adjust height for each group independently
-        groups.stream().filter((group) -> !(group.cells.isEmpty())).forEachOrdered((group) -> {
+        boolean extendedResized = false;
+        for (Group group : groups) {
+            if (group.cells.isEmpty()) {
+                continue;
+            }
+
             double alpha = group.h / group.cells
                     .stream()
-                    .mapToInt(Cell::getHeight)
+                    .mapToDouble(Cell::getHeight)
                     .sum();
 
-            group.cells.forEach((cell) -> {
+            if (Math.abs(alpha - 1) < EPSILON) {
+                continue;
+            }
+
+            for (Cell cell : group.cells) {
                 cell.scale(alpha);
-            });
-        });
+                extendedResized = extendedResized || cell.isExtended();
+            }
+        }
+
+        return extendedResized;
     }
 
-    LinkedList<Cell> getCells() {
+    /**
+     * Read only view, use {@link #addCell(Cell)} and {@link #removeCell(Cell)} to modify.
+     *
+     * @return the cells of this column, top to bottom
+     */
+    ArrayList<Cell> getCells() {
         return mCells;
     }
 
+    Cell getFirstCell() {
+        return mCells.isEmpty() ? null : mCells.get(0);
+    }
+
     /**
      * @return The column's total height
      *
@@ -117,44 +166,101 @@ public class Column {
      * cells.
      *
      */
-    int getHeight() {
+    double getHeight() {
         if (mCells.isEmpty()) {
             return 0;
         } else {
-            return mCells.getLast().getY() + mCells.getLast().getHeight();
+            Cell last = getLastCell();
+            return last.getY() + last.getHeight();
         }
     }
 
+    int getIndex() {
+        return mIndex;
+    }
+
     /**
+     * Returns the cached y coordinate of the cell at index, computing the missing entries above it.
      *
-     * @return the column on the left of this one
+     * @param index
+     * @return
      */
-    Column getLeftNeighbor() {
-        try {
-            return mParentColumns.get(mParentColumns.indexOf(this) - 1);
-        } catch (IndexOutOfBoundsException e) {
-            return null;
+    double getY(int index) {
+        for (; mNumOfValidY <= index; mNumOfValidY++) {
+            Cell cell = mCells.get(mNumOfValidY);
+            if (cell.isExtension()) {
+                mYs[mNumOfValidY] = cell.getOrigin().getY();
+            } else if (mNumOfValidY == 0) {
+                mYs[mNumOfValidY] = 0;
+            } else {
+                mYs[mNumOfValidY] = mYs[mNumOfValidY - 1] + mCells.get(mNumOfValidY - 1).getHeight();
+            }
+        }
+
+        return mYs[index];
+    }
+
+    /**
+     * Invalidate the cached y coordinates from index and down, including the extents of the
+     * affected cells in the column to the right.
+     *
+     * @param index
+     */
+    void invalidateY(int index) {
+        if (index >= mNumOfValidY) {
+            return;
+        }
+
+        for (int i = index; i < mNumOfValidY; i++) {
+            Extent extent = mCells.get(i).getExtent();
+            if (extent != null) {
+                extent.getColumn().invalidateY(extent.getIndex());
+            }
+        }
+
+        mNumOfValidY = index;
+    }
+
+    Cell getLastCell() {
+        return mCells.isEmpty() ? null : mCells.get(mCells.size() - 1);
+    }
+
+    /**
+     *
+     * @return the index of the first cell below the last extent, i.e. of the last group of
+     * movable cells
+     */
+    int getLastGroupStart() {
+        int index = mCells.size();
+        while (index > 0 && !mCells.get(index - 1).isExtension()) {
+            index--;
         }
+
+        return index;
     }
 
     /**
      *
      * @return the column on the left of this one
      */
+    Column getLeftNeighbor() {
+        return mIndex > 0 ? mParentColumns.get(mIndex - 1) : null;
+    }
+
+    /**
+     *
+     * @return the column on the right of this one
+     */
     Column getRightNeighbor() {
-        try {
-            return mParentColumns.get(mParentColumns.indexOf(this) + 1);
-        } catch (IndexOutOfBoundsException e) {
-            return null;
-        }
+        return mIndex < mParentColumns.size() - 1 ? mParentColumns.get(mIndex + 1) : null;
     }
 
-    int getWidth() {
+    double getWidth() {
         return mWidth;
     }
 
-    int getX() {
-        int x = 0;
+    double getX() {
+        double x = 0;
 
         for (Column column : mParentColumns) {
             if (column == this) {
@@ -167,12 +273,31 @@ public class Column {
         return x;
     }
 
+    /**
+     * Remove a cell from the column. Cells below it are moved up one position, so removing the
+     * bottom cell is O(1).
+     *
+     * @param cell
+     */
+    void removeCell(Cell cell) {
+        int index = cell.getIndex();
+        invalidateY(index);
+        mCells.remove(index);
+        for (int i = index; i < mCells.size(); i++) {
+            mCells.get(i).setPosition(this, i);
+        }
+    }
+
     void scale(double alpha) {
         mWidth *= alpha;
         mCells.forEach((Cell cell) -> {
             cell.scale(alpha);
         });
     }
+
+    void setIndex(int index) {
+        mIndex = index;
+    }
 }
 /*
 class Column(object):
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.util.Random;
+
+/**
+ * Indexed binary min heap of column indexes ordered by height
+ *
+ * All arrays are allocated up front, so neither lookups nor updates allocate.
+ *
+ * @author Patrik Karlsson
+ */
+class ColumnHeap {
+
+    private final int[] mCandidates;
+    private final int[] mHeap;
+    private final double[] mHeights;
+    private final int[] mPositions;
+    private final int mSize;
+
+    ColumnHeap(double[] heights) {
+        mSize = heights.length;
+        mHeap = new int[mSize];
+        mHeights = new double[mSize];
+        mPositions = new int[mSize];
+        mCandidates = new int[mSize];
+
+        for (int i = 0; i < mSize; i++) {
+            mHeap[i] = i;
+            mPositions[i] = i;
+            mHeights[i] = heights[i];
+        }
+
+        for (int i = mSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * Returns one of the columns with lowest height, ties are broken with random.
+     *
+     * @param random
+     * @return the column index
+     */
+    int getMin(Random random) {
+        double minHeight = mHeights[mHeap[0]];
+        int numOfCandidates = 0;
+        int numOfPending = 1;
+
+        //Columns sharing the minimum height form a subtree under the root, walk it using the
+        //tail of mCandidates as stack of pending heap positions
+        mCandidates[mSize - 1] = 0;
+        while (numOfPending > 0) {
+            int pos = mCandidates[mSize - numOfPending];
+            numOfPending--;
+            mCandidates[numOfCandidates++] = mHeap[pos];
+
+            for (int child = 2 * pos + 1; child <= 2 * pos + 2 && child < mSize; child++) {
+                if (mHeights[mHeap[child]] == minHeight) {
+                    numOfPending++;
+                    mCandidates[mSize - numOfPending] = child;
+                }
+            }
+        }
+
+        return numOfCandidates == 1 ? mCandidates[0] : mCandidates[random.nextInt(numOfCandidates)];
+    }
+
+    /**
+     * Restore the heap order after the height of a column has changed
+     *
+     * @param index
+     * @param height
+     */
+    void update(int index, double height) {
+        mHeights[index] = height;
+        int pos = mPositions[index];
+        siftUp(pos);
+        siftDown(mPositions[index]);
+    }
+
+    private boolean less(int pos1, int pos2) {
+        double h1 = mHeights[mHeap[pos1]];
+        double h2 = mHeights[mHeap[pos2]];
+
+        return h1 < h2 || (h1 == h2 && mHeap[pos1] < mHeap[pos2]);
+    }
+
+    private void siftDown(int pos) {
+        while (true) {
+            int smallest = pos;
+            int left = 2 * pos + 1;
+            int right = left + 1;
+
+            if (left < mSize && less(left, smallest)) {
+                smallest = left;
+            }
+
+            if (right < mSize && less(right, smallest)) {
+                smallest = right;
+            }
+
+            if (smallest == pos) {
+                return;
+            }
+
+            swap(pos, smallest);
+            pos = smallest;
+        }
+    }
+
+    private void siftUp(int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            if (!less(pos, parent)) {
+                return;
+            }
+
+            swap(pos, parent);
+            pos = parent;
+        }
+    }
+
+    private void swap(int pos1, int pos2) {
+        int index1 = mHeap[pos1];
+        int index2 = mHeap[pos2];
+        mHeap[pos1] = index2;
+        mHeap[pos2] = index1;
+        mPositions[index2] = pos1;
+        mPositions[index1] = pos2;
+    }
+}
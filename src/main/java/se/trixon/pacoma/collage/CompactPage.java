@@ -0,0 +1,494 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Compact representation of a {@link Page} for very large collages
+ *
+ * Instead of Page, Column, Cell and Extent objects, cells are stored as parallel arrays holding
+ * their first column, their span (1 or 2 columns) and their height. Each column is an int array of
+ * slots, where a slot holds a cell id, or -1 - id for the extent of a cell.
+ *
+ * Given the same photos and the same Random, the layout is identical to the one of Page, including
+ * the ASCII art returned by {@link #toString()}. Page stays the reference implementation, and
+ * CompactPageCheck under src/test compares the two. Only the initial layout is ported, a
+ * CompactPage is made to be rendered through {@link #snapshot()}, not edited.
+ *
+ * @author Patrik Karlsson
+ */
+class CompactPage {
+
+    private static final double EPSILON = 1E-9;
+    private static final int INITIAL_CAPACITY = 16;
+    private int[] mCellCols = new int[INITIAL_CAPACITY];
+    private double[] mCellHeights = new double[INITIAL_CAPACITY];
+    private Photo[] mCellPhotos = new Photo[INITIAL_CAPACITY];
+    private int[] mCellSlots = new int[INITIAL_CAPACITY];
+    private int[] mCellSpans = new int[INITIAL_CAPACITY];
+    private int[] mColSizes;
+    private int[][] mColSlots;
+    private double[] mColWidths;
+    private double[][] mColYs;
+    private ColumnHeap mColumnHeap;
+    private int[] mExtentSlots = new int[INITIAL_CAPACITY];
+    private int mNumOfCells = 0;
+    private int mNumOfCols;
+    private int[] mNumOfValidY;
+    private final Random mRandom;
+    private final double mTargetRatio;
+
+    CompactPage(double w, double targetRatio, int numOfCols, Random random) {
+        mTargetRatio = targetRatio;
+        mRandom = random;
+        mNumOfCols = numOfCols;
+        mColWidths = new double[numOfCols];
+        mColSizes = new int[numOfCols];
+        mColSlots = new int[numOfCols][INITIAL_CAPACITY];
+        mColYs = new double[numOfCols][INITIAL_CAPACITY];
+        mNumOfValidY = new int[numOfCols];
+
+        double colW = w / numOfCols;
+        Arrays.fill(mColWidths, colW);
+    }
+
+    /**
+     *
+     * @return Representation of the page in ASCII art, same as {@link Page#toString()}
+     */
+    @Override
+    public String toString() {
+        LinkedList<String> lines = new LinkedList<>();
+        int n = 0;
+        boolean end = false;
+        while (!end) {
+            lines.add("");
+            end = true;
+            for (int col = 0; col < mNumOfCols; col++) {
+                int w = 0;
+                for (int i = 0; i < mColSizes[col]; i++) {
+                    w = Math.max(w, slotToString(mColSlots[col][i]).length());
+                }
+                if (col < mNumOfCols - 1) {
+                    w += 1;
+                }
+                String cell = StringUtils.repeat(" ", w);
+                if (n < mColSizes[col]) {
+                    String s = slotToString(mColSlots[col][n]);
+                    cell = s + StringUtils.repeat(" ", w - s.length());
+                    if (n < mColSizes[col] - 1) {
+                        end = false;
+                    }
+                }
+                lines.set(lines.size() - 1, lines.getLast() + cell);
+            }
+            n++;
+        }
+
+        return String.join("\n", lines);
+    }
+
+    /**
+     * See {@link Page#addCell(Photo)}
+     *
+     * @param photo
+     */
+    void addCell(Photo photo) {
+        int col = getNextFreeColumn();
+        int left = col - 1;
+        int right = col + 1 < mNumOfCols ? col + 1 : -1;
+
+        if (2 * mRandom.nextDouble() > photo.getRatio()) {
+            if (left >= 0 && Math.abs(getColumnHeight(col) - getColumnHeight(left)) < 0.5 * mColWidths[col]) {
+                addCellMultiColumn(left, photo);
+                return;
+            } else if (right >= 0 && Math.abs(getColumnHeight(col) - getColumnHeight(right)) < 0.5 * mColWidths[col]) {
+                addCellMultiColumn(col, photo);
+                return;
+            }
+        }
+
+        addCellSingleColumn(col, photo);
+    }
+
+    /**
+     * See {@link Page#adjust()}
+     */
+    void adjust() {
+        mColumnHeap = null;
+        removeEmptyCols();
+        removeBottomHoles();
+        adjustColumnHeights();
+    }
+
+    int getNumOfCells() {
+        return mNumOfCells;
+    }
+
+    /**
+     * See {@link Page#snapshot()}, the cells are in the same order
+     *
+     * @return
+     */
+    PageSnapshot snapshot() {
+        int numOfCells = 0;
+        int[] cells = new int[mNumOfCells];
+        for (int col = 0; col < mNumOfCols; col++) {
+            for (int i = 0; i < mColSizes[col]; i++) {
+                if (mColSlots[col][i] >= 0) {
+                    cells[numOfCells++] = mColSlots[col][i];
+                }
+            }
+        }
+
+        double[] xs = new double[numOfCells];
+        double[] ys = new double[numOfCells];
+        double[] widths = new double[numOfCells];
+        double[] heights = new double[numOfCells];
+        Photo[] photos = new Photo[numOfCells];
+        for (int i = 0; i < numOfCells; i++) {
+            xs[i] = getCellX(cells[i]);
+            ys[i] = getCellY(cells[i]);
+            widths[i] = getCellWidth(cells[i]);
+            heights[i] = mCellHeights[cells[i]];
+            photos[i] = mCellPhotos[cells[i]];
+        }
+
+        return new PageSnapshot(getWidth(), getHeight(), xs, ys, widths, heights, photos);
+    }
+
+    double getCellHeight(int cell) {
+        return mCellHeights[cell];
+    }
+
+    Photo getCellPhoto(int cell) {
+        return mCellPhotos[cell];
+    }
+
+    double getCellWidth(int cell) {
+        double width = 0;
+        for (int col = mCellCols[cell]; col < mCellCols[cell] + mCellSpans[cell]; col++) {
+            width += mColWidths[col];
+        }
+
+        return width;
+    }
+
+    double getCellX(int cell) {
+        double x = 0;
+        for (int col = 0; col < mCellCols[cell]; col++) {
+            x += mColWidths[col];
+        }
+
+        return x;
+    }
+
+    double getCellY(int cell) {
+        return getY(mCellCols[cell], mCellSlots[cell]);
+    }
+
+    private void addCellMultiColumn(int col, Photo photo) {
+        int cell = createCell(photo, col, 2);
+        addSlot(col, cell);
+        addSlot(col + 1, -1 - cell);
+        mColumnHeap.update(col, getColumnHeight(col));
+        mColumnHeap.update(col + 1, getColumnHeight(col + 1));
+    }
+
+    private void addCellSingleColumn(int col, Photo photo) {
+        int cell = createCell(photo, col, 1);
+        addSlot(col, cell);
+        mColumnHeap.update(col, getColumnHeight(col));
+    }
+
+    private void addSlot(int col, int slot) {
+        int index = mColSizes[col];
+        if (index == mColSlots[col].length) {
+            mColSlots[col] = Arrays.copyOf(mColSlots[col], 2 * index);
+            mColYs[col] = Arrays.copyOf(mColYs[col], 2 * index);
+        }
+
+        mColSlots[col][index] = slot;
+        mColSizes[col]++;
+        setSlotIndex(slot, index);
+    }
+
+    private void adjustColumnHeights() {
+        double targetHeight = getWidth() * mTargetRatio;
+        double[] groupHeights = new double[INITIAL_CAPACITY];
+
+        for (int col = 0; col < mNumOfCols; col++) {
+            int[] slots = mColSlots[col];
+            int size = mColSizes[col];
+            int groupStart = 0;
+            double groupY = 0;
+
+            //Groups of movable cells are delimited by extents, see Column.adjustHeight()
+            for (int i = 0; i <= size; i++) {
+                double groupEnd;
+                if (i == size) {
+                    groupEnd = targetHeight;
+                } else if (slots[i] < 0) {
+                    groupEnd = getY(col, i);
+                } else {
+                    continue;
+                }
+
+                int numOfGroupCells = i - groupStart;
+                if (numOfGroupCells > 0) {
+                    if (numOfGroupCells > groupHeights.length) {
+                        groupHeights = new double[2 * numOfGroupCells];
+                    }
+                    for (int j = 0; j < numOfGroupCells; j++) {
+                        groupHeights[j] = mCellHeights[slots[groupStart + j]];
+                    }
+
+                    double alpha = (groupEnd - groupY) / Arrays.stream(groupHeights, 0, numOfGroupCells).sum();
+                    if (Math.abs(alpha - 1) >= EPSILON) {
+                        for (int j = groupStart; j < i; j++) {
+                            scaleCell(slots[j], alpha);
+                        }
+                    }
+                }
+
+                if (i < size) {
+                    groupY = getY(col, i) + mCellHeights[-1 - slots[i]];
+                    groupStart = i + 1;
+                }
+            }
+        }
+    }
+
+    private int createCell(Photo photo, int col, int span) {
+        if (mNumOfCells == mCellCols.length) {
+            int capacity = 2 * mNumOfCells;
+            mCellCols = Arrays.copyOf(mCellCols, capacity);
+            mCellHeights = Arrays.copyOf(mCellHeights, capacity);
+            mCellPhotos = Arrays.copyOf(mCellPhotos, capacity);
+            mCellSlots = Arrays.copyOf(mCellSlots, capacity);
+            mCellSpans = Arrays.copyOf(mCellSpans, capacity);
+            mExtentSlots = Arrays.copyOf(mExtentSlots, capacity);
+        }
+
+        int cell = mNumOfCells++;
+        mCellCols[cell] = col;
+        mCellSpans[cell] = span;
+        mCellPhotos[cell] = photo;
+        mCellHeights[cell] = getCellWidth(cell) * photo.getRatio();
+
+        return cell;
+    }
+
+    private double getColumnHeight(int col) {
+        int size = mColSizes[col];
+        if (size == 0) {
+            return 0;
+        } else {
+            return getY(col, size - 1) + getSlotHeight(mColSlots[col][size - 1]);
+        }
+    }
+
+    private double getHeight() {
+        double height = 0;
+        for (int col = 0; col < mNumOfCols; col++) {
+            height = Math.max(height, getColumnHeight(col));
+        }
+
+        return height;
+    }
+
+    private int getNextFreeColumn() {
+        if (mColumnHeap == null) {
+            double[] heights = new double[mNumOfCols];
+            for (int col = 0; col < mNumOfCols; col++) {
+                heights[col] = getColumnHeight(col);
+            }
+            mColumnHeap = new ColumnHeap(heights);
+        }
+
+        return mColumnHeap.getMin(mRandom);
+    }
+
+    private double getSlotHeight(int slot) {
+        return mCellHeights[slot < 0 ? -1 - slot : slot];
+    }
+
+    /**
+     * See {@link Column#getY(int)}
+     */
+    private double getY(int col, int index) {
+        int[] slots = mColSlots[col];
+        double[] ys = mColYs[col];
+
+        for (int i = mNumOfValidY[col]; i <= index; i++) {
+            if (slots[i] < 0) {
+                ys[i] = getCellY(-1 - slots[i]);
+            } else if (i == 0) {
+                ys[i] = 0;
+            } else {
+                ys[i] = ys[i - 1] + getSlotHeight(slots[i - 1]);
+            }
+            mNumOfValidY[col] = i + 1;
+        }
+
+        return ys[index];
+    }
+
+    /**
+     * See {@link Column#invalidateY(int)}
+     */
+    private void invalidateY(int col, int index) {
+        if (index >= mNumOfValidY[col]) {
+            return;
+        }
+
+        for (int i = index; i < mNumOfValidY[col]; i++) {
+            int slot = mColSlots[col][i];
+            if (slot >= 0 && mCellSpans[slot] == 2) {
+                invalidateY(col + 1, mExtentSlots[slot]);
+            }
+        }
+
+        mNumOfValidY[col] = index;
+    }
+
+    private double getWidth() {
+        return Arrays.stream(mColWidths, 0, mNumOfCols).sum();
+    }
+
+    private boolean isExtended(int slot) {
+        return slot >= 0 && mCellSpans[slot] == 2;
+    }
+
+    private boolean isLast(int col, int index) {
+        return index == mColSizes[col] - 1;
+    }
+
+    /**
+     * See {@link Page#removeBottomHoles()}
+     */
+    private void removeBottomHoles() {
+        for (int col = 0; col < mNumOfCols; col++) {
+            int size = mColSizes[col];
+            if (size <= 1) {
+                continue;
+            }
+
+            int slot = mColSlots[col][size - 1];
+            int top = mColSlots[col][size - 2];
+
+            // Case A
+            if (slot >= 0 && !isExtended(slot)) {
+                //Case A1
+                if (isExtended(top) && isLast(col + 1, mExtentSlots[top])) {
+                    //Extend cell to right
+                    addSlot(col + 1, -1 - slot);
+                    mCellSpans[slot] = 2;
+                    //Case A2
+                } else if (top < 0 && isLast(col - 1, mCellSlots[-1 - top])) {
+                    //Extend cell to left
+                    removeLastSlot(col);
+                    addSlot(col - 1, slot);
+                    addSlot(col, -1 - slot);
+                    mCellCols[slot] = col - 1;
+                    mCellSpans[slot] = 2;
+                }
+
+                //Case B
+            } else if (isExtended(slot) && isLast(col + 1, mExtentSlots[slot])) {
+                int extentIndex = mExtentSlots[slot];
+                int extentTop = extentIndex > 0 ? mColSlots[col + 1][extentIndex - 1] : 0;
+
+                //Case B1
+                if (extentIndex > 0 && isExtended(extentTop) && isLast(col + 2, mExtentSlots[extentTop])) {
+                    //Move cell to right
+                    removeLastSlot(col);
+                    removeLastSlot(col + 1);
+                    addSlot(col + 1, slot);
+                    addSlot(col + 2, -1 - slot);
+                    mCellCols[slot] = col + 1;
+                    //Case B2
+                } else if (top < 0 && isLast(col - 1, mCellSlots[-1 - top])) {
+                    //Move cell to left
+                    removeLastSlot(col);
+                    removeLastSlot(col + 1);
+                    addSlot(col - 1, slot);
+                    addSlot(col, -1 - slot);
+                    mCellCols[slot] = col - 1;
+                }
+            }
+        }
+    }
+
+    private void removeEmptyCols() {
+        int[] newIndexes = new int[mNumOfCols];
+        int numOfCols = 0;
+
+        for (int col = 0; col < mNumOfCols; col++) {
+            if (mColSizes[col] > 0) {
+                newIndexes[col] = numOfCols;
+                mColWidths[numOfCols] = mColWidths[col];
+                mColSizes[numOfCols] = mColSizes[col];
+                mColSlots[numOfCols] = mColSlots[col];
+                mColYs[numOfCols] = mColYs[col];
+                mNumOfValidY[numOfCols] = mNumOfValidY[col];
+                numOfCols++;
+            }
+        }
+
+        if (numOfCols < mNumOfCols) {
+            for (int cell = 0; cell < mNumOfCells; cell++) {
+                mCellCols[cell] = newIndexes[mCellCols[cell]];
+            }
+            mNumOfCols = numOfCols;
+        }
+    }
+
+    private void removeLastSlot(int col) {
+        int index = mColSizes[col] - 1;
+        invalidateY(col, index);
+        mColSizes[col]--;
+    }
+
+    private void scaleCell(int cell, double alpha) {
+        mCellHeights[cell] *= alpha;
+        invalidateY(mCellCols[cell], mCellSlots[cell] + 1);
+        if (mCellSpans[cell] == 2) {
+            invalidateY(mCellCols[cell] + 1, mExtentSlots[cell] + 1);
+        }
+    }
+
+    private void setSlotIndex(int slot, int index) {
+        if (slot < 0) {
+            mExtentSlots[-1 - slot] = index;
+        } else {
+            mCellSlots[slot] = index;
+        }
+    }
+
+    private String slotToString(int slot) {
+        if (slot < 0) {
+            return "------]";
+        } else {
+            String end = mCellSpans[slot] == 2 ? "--" : "]";
+            return String.format("[%d %d%s", (int) getCellWidth(slot), (int) mCellHeights[slot], end);
+        }
+    }
+}
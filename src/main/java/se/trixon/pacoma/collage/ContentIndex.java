@@ -0,0 +1,340 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Finds files with the same content as files already in a collage
+ *
+ * Files are indexed by size, and nothing is read unless two files have the same size. Those are
+ * bucketed by a digest of their size, first and last blocks, and only files in the same bucket are
+ * compared by a digest of the whole file, read through memory mapped windows. The digests of
+ * indexed files are kept, so every file is read at most once and a check costs the same however
+ * many files share a size.
+ *
+ * Adding and removing files never blocks, files added by {@link #add(File)} are sized by the next
+ * {@link #addIfUnique(File)}. That one does the I/O and is meant for background threads, the
+ * checks are serialized so concurrent batches can't let duplicates of each other through.
+ *
+ * @author Patrik Karlsson
+ */
+class ContentIndex {
+
+    private static final int BLOCK_SIZE = 4096;
+    private static final long MAPPED_WINDOW_SIZE = 64 * 1024 * 1024;
+    private final HashMap<File, String> mBlockDigests = new HashMap<>();
+    private final Object mCheckLock = new Object();
+    private final HashMap<String, LinkedHashSet<File>> mFilesByBlockDigest = new HashMap<>();
+    private final HashMap<File, String> mFullDigests = new HashMap<>();
+    private final HashMap<Long, Integer> mNumOfFilesBySize = new HashMap<>();
+    private final HashMap<File, Long> mSizes = new HashMap<>();
+    /**
+     * Files of a size that no other file had when they were indexed, digested on demand
+     */
+    private final HashMap<Long, LinkedHashSet<File>> mUndigestedFilesBySize = new HashMap<>();
+    private final LinkedHashSet<File> mUnsizedFiles = new LinkedHashSet<>();
+
+    private static MessageDigest getMessageDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            //Every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     *
+     * @param file
+     * @param size included in the digest, so files of different sizes never share a bucket
+     * @return
+     * @throws IOException
+     */
+    private static String readBlockDigest(File file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest messageDigest = getMessageDigest();
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+            readBlock(channel, buffer, 0);
+            messageDigest.update(buffer);
+
+            readBlock(channel, buffer, Math.max(0, size - BLOCK_SIZE));
+            messageDigest.update(buffer);
+
+            return size + ":" + toHex(messageDigest.digest());
+        }
+    }
+
+    private static void readBlock(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    private static String readFullDigest(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest messageDigest = getMessageDigest();
+            long size = channel.size();
+            for (long pos = 0; pos < size; pos += MAPPED_WINDOW_SIZE) {
+                messageDigest.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAPPED_WINDOW_SIZE, size - pos)));
+            }
+
+            return toHex(messageDigest.digest());
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        return String.format("%032x", new BigInteger(1, digest));
+    }
+
+    /**
+     * Index the file without reading it, it is sized on the next check
+     *
+     * @param file
+     */
+    synchronized void add(File file) {
+        if (!contains(file)) {
+            mUnsizedFiles.add(file);
+        }
+    }
+
+    /**
+     * Index the file unless it, or a file with the same content, is already indexed. Blocks on
+     * I/O, don't call it on the EDT.
+     *
+     * @param file
+     * @return true if the file was indexed
+     */
+    boolean addIfUnique(File file) {
+        long size = file.length();
+
+        synchronized (mCheckLock) {
+            if (contains(file)) {
+                return false;
+            }
+
+            sizeUnsizedFiles();
+            boolean sizeTaken;
+            synchronized (this) {
+                sizeTaken = mNumOfFilesBySize.containsKey(size);
+            }
+
+            String blockDigest = null;
+            String fullDigest = null;
+            if (sizeTaken) {
+                try {
+                    blockDigest = readBlockDigest(file, size);
+                } catch (IOException e) {
+                    //Unreadable files can't be compared, they are reported when probed
+                    System.err.println(e.getMessage());
+                }
+            }
+
+            if (blockDigest != null) {
+                digestFilesOfSize(size);
+                for (File candidate : getFilesWithBlockDigest(blockDigest)) {
+                    if (fullDigest == null) {
+                        try {
+                            fullDigest = readFullDigest(file);
+                        } catch (IOException e) {
+                            System.err.println(e.getMessage());
+                            break;
+                        }
+                    }
+
+                    if (fullDigest.equals(getFullDigest(candidate))) {
+                        return false;
+                    }
+                }
+            }
+
+            synchronized (this) {
+                if (contains(file)) {
+                    return false;
+                }
+
+                addSized(file, size);
+                if (blockDigest != null) {
+                    setBlockDigest(file, size, blockDigest);
+                }
+                if (fullDigest != null) {
+                    mFullDigests.put(file, fullDigest);
+                }
+            }
+
+            return true;
+        }
+    }
+
+    synchronized void clear() {
+        mBlockDigests.clear();
+        mFilesByBlockDigest.clear();
+        mFullDigests.clear();
+        mNumOfFilesBySize.clear();
+        mSizes.clear();
+        mUndigestedFilesBySize.clear();
+        mUnsizedFiles.clear();
+    }
+
+    synchronized boolean contains(File file) {
+        return mSizes.containsKey(file) || mUnsizedFiles.contains(file);
+    }
+
+    synchronized void remove(File file) {
+        mUnsizedFiles.remove(file);
+        Long size = mSizes.remove(file);
+        if (size != null) {
+            mNumOfFilesBySize.computeIfPresent(size, (key, count) -> count > 1 ? count - 1 : null);
+            removeFromBucket(mUndigestedFilesBySize, size, file);
+        }
+
+        String blockDigest = mBlockDigests.remove(file);
+        if (blockDigest != null) {
+            removeFromBucket(mFilesByBlockDigest, blockDigest, file);
+        }
+        mFullDigests.remove(file);
+    }
+
+    /**
+     * Forget the size and digests of an indexed file whose content has changed
+     *
+     * @param file
+     */
+    synchronized void update(File file) {
+        if (contains(file)) {
+            remove(file);
+            add(file);
+        }
+    }
+
+    private void addSized(File file, long size) {
+        mSizes.put(file, size);
+        mNumOfFilesBySize.merge(size, 1, Integer::sum);
+        mUndigestedFilesBySize.computeIfAbsent(size, (key) -> new LinkedHashSet<>()).add(file);
+    }
+
+    /**
+     * Called holding the check lock only, files unreadable now can't be compared and are left out
+     * of the buckets until they are updated
+     *
+     * @param size
+     */
+    private void digestFilesOfSize(long size) {
+        ArrayList<File> files;
+        synchronized (this) {
+            LinkedHashSet<File> undigestedFiles = mUndigestedFilesBySize.remove(size);
+            if (undigestedFiles == null) {
+                return;
+            }
+            files = new ArrayList<>(undigestedFiles);
+        }
+
+        for (File file : files) {
+            try {
+                String blockDigest = readBlockDigest(file, size);
+                synchronized (this) {
+                    //Skip files removed while reading
+                    if (size == mSizes.getOrDefault(file, -1L)) {
+                        setBlockDigest(file, size, blockDigest);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    private synchronized ArrayList<File> getFilesWithBlockDigest(String blockDigest) {
+        LinkedHashSet<File> files = mFilesByBlockDigest.get(blockDigest);
+
+        return files == null ? new ArrayList<>() : new ArrayList<>(files);
+    }
+
+    /**
+     *
+     * @param file an indexed file
+     * @return the digest, or null if the file can't be read, e.g. if it has been deleted
+     */
+    private String getFullDigest(File file) {
+        synchronized (this) {
+            String digest = mFullDigests.get(file);
+            if (digest != null) {
+                return digest;
+            }
+        }
+
+        try {
+            String digest = readFullDigest(file);
+            synchronized (this) {
+                if (mSizes.containsKey(file)) {
+                    mFullDigests.put(file, digest);
+                }
+            }
+
+            return digest;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    private <K> void removeFromBucket(HashMap<K, LinkedHashSet<File>> buckets, K key, File file) {
+        LinkedHashSet<File> files = buckets.get(key);
+        if (files != null && files.remove(file) && files.isEmpty()) {
+            buckets.remove(key);
+        }
+    }
+
+    private void setBlockDigest(File file, long size, String blockDigest) {
+        removeFromBucket(mUndigestedFilesBySize, size, file);
+        mBlockDigests.put(file, blockDigest);
+        mFilesByBlockDigest.computeIfAbsent(blockDigest, (key) -> new LinkedHashSet<>()).add(file);
+    }
+
+    private void sizeUnsizedFiles() {
+        ArrayList<File> files;
+        synchronized (this) {
+            if (mUnsizedFiles.isEmpty()) {
+                return;
+            }
+            files = new ArrayList<>(mUnsizedFiles);
+        }
+
+        for (File file : files) {
+            long size = file.length();
+            synchronized (this) {
+                //Skip files removed while sizing
+                if (mUnsizedFiles.remove(file)) {
+                    addSized(file, size);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the EXIF orientation (tag 274) of a JPEG file
+ *
+ * Only the start of the file is mapped, and the markers, the APP1 segment and IFD0 of its TIFF
+ * structure are walked directly. Nothing else of the EXIF data is parsed. Should the walk leave
+ * the mapped start, e.g. after a large ICC profile in APP2 segments, the segment headers are read
+ * one by one from there, and an APP1 segment is read whole.
+ *
+ * @author Patrik Karlsson
+ */
+class ExifOrientation {
+
+    private static final int MAX_MAPPED_SIZE = 64 * 1024;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+
+    /**
+     *
+     * @param orientation
+     * @return true if width and height are swapped when the photo is displayed
+     */
+    static boolean isTransposed(int orientation) {
+        return orientation >= 5 && orientation <= 8;
+    }
+
+    /**
+     *
+     * @param file
+     * @return the orientation, 1-8, or 0 if the file has none
+     * @throws IOException
+     */
+    static int read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            //Truncated or corrupt, treat it as if there was no orientation
+            return 0;
+        }
+    }
+
+    private static int read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_MAPPED_SIZE));
+        mapped.order(ByteOrder.BIG_ENDIAN);
+        if (mapped.getShort(0) != (short) 0xFFD8) {
+            return 0;
+        }
+
+        long pos = 2;
+        while (pos + 4 <= size) {
+            ByteBuffer buffer = mapped;
+            int bufferPos = (int) pos;
+            if (pos + 4 > mapped.limit()) {
+                buffer = read(channel, pos, 4);
+                bufferPos = 0;
+            }
+
+            if ((buffer.get(bufferPos) & 0xFF) != 0xFF) {
+                return 0;
+            }
+
+            int marker = buffer.get(bufferPos + 1) & 0xFF;
+            if (marker == 0xFF) {
+                //Fill byte
+                pos++;
+                continue;
+            } else if (marker == 0xDA || marker == 0xD9) {
+                //Start of scan or end of image, there is no EXIF data
+                return 0;
+            }
+
+            int length = buffer.getShort(bufferPos + 2) & 0xFFFF;
+            if (marker == 0xE1) {
+                if (pos + 2 + length > mapped.limit()) {
+                    buffer = read(channel, pos, 2 + length);
+                    bufferPos = 0;
+                }
+                if (isExif(buffer, bufferPos + 4)) {
+                    return readTiff(buffer, bufferPos + 10);
+                }
+            }
+
+            pos += 2 + length;
+        }
+
+        return 0;
+    }
+
+    /**
+     *
+     * @param channel
+     * @param position
+     * @param length
+     * @return the bytes, fewer at the end of the file
+     * @throws IOException
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static boolean isExif(ByteBuffer buffer, int pos) {
+        return buffer.get(pos) == 'E'
+                && buffer.get(pos + 1) == 'x'
+                && buffer.get(pos + 2) == 'i'
+                && buffer.get(pos + 3) == 'f'
+                && buffer.get(pos + 4) == 0
+                && buffer.get(pos + 5) == 0;
+    }
+
+    private static int readTiff(ByteBuffer buffer, int tiffStart) {
+        if (buffer.get(tiffStart) == 'I' && buffer.get(tiffStart + 1) == 'I') {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (buffer.get(tiffStart) != 'M' || buffer.get(tiffStart + 1) != 'M') {
+            return 0;
+        }
+
+        if (buffer.getShort(tiffStart + 2) != 42) {
+            return 0;
+        }
+
+        int ifd = tiffStart + buffer.getInt(tiffStart + 4);
+        int numOfEntries = buffer.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < numOfEntries; i++) {
+            int entry = ifd + 2 + 12 * i;
+            if ((buffer.getShort(entry) & 0xFFFF) == TAG_ORIENTATION) {
+                if ((buffer.getShort(entry + 2) & 0xFFFF) != TYPE_SHORT) {
+                    return 0;
+                }
+                int orientation = buffer.getShort(entry + 8) & 0xFFFF;
+
+                return orientation >= 1 && orientation <= 8 ? orientation : 0;
+            }
+        }
+
+        return 0;
+    }
+
+    private ExifOrientation() {
+    }
+}
@@ -15,8 +15,6 @@
  */
 package se.trixon.pacoma.collage;
 
-import java.util.LinkedList;
-
 /**
  * Based on work by Adrien Vergé in https://github.com/adrienverge/PhotoCollage
  *
@@ -41,7 +39,7 @@ public class Extent extends Cell {
     }
 
     @Override
-    int getHeight() {
+    double getHeight() {
         return mOrigin.getHeight();
     }
 
@@ -50,18 +48,13 @@ public class Extent extends Cell {
         return mOrigin;
     }
 
-    @Override
-    LinkedList<Column> getParents() {
-        return (LinkedList<Column>) mOrigin.getParents().subList(1, 1);
-    }
-
     @Override
     Photo getPhoto() {
         return mOrigin.getPhoto();
     }
 
     @Override
-    int getY() {
+    double getY() {
         return mOrigin.getY();
     }
 
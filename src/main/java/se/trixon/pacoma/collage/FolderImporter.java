@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.awt.EventQueue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adds all images in a directory tree to a {@link Collage}
+ *
+ * Every directory is listed by its own task, with {@link Files#walkFileTree} limited to one
+ * level, and its subdirectories are forked as new tasks, so large trees are walked in parallel.
+ * Duplicates are rejected by the tasks, and the remaining images are handed to
+ * {@link Collage#addFiles(java.util.List)} on the EDT in chunks as they are found, so progress
+ * shows immediately and the complete listing is never held in memory.
+ *
+ * Images are told by their content with {@link ImageSniffer}, like dropped files. The images of a
+ * directory are added in name order, but directories may be added in any order.
+ *
+ * @author Patrik Karlsson
+ */
+public class FolderImporter {
+
+    private static final int CHUNK_SIZE = 500;
+    private volatile boolean mCancelled;
+    private ArrayList<File> mChunk = new ArrayList<>(CHUNK_SIZE);
+    private final Collage mCollage;
+    private final AtomicInteger mNumOfFiles = new AtomicInteger();
+    private final int mNumOfThreads;
+
+    public FolderImporter(Collage collage) {
+        this(collage, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     *
+     * @param collage
+     * @param numOfThreads the maximum number of directories listed at once
+     */
+    public FolderImporter(Collage collage, int numOfThreads) {
+        mCollage = collage;
+        mNumOfThreads = Math.max(1, numOfThreads);
+    }
+
+    /**
+     * Stop walking, chunks already handed over are kept
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     *
+     * @return the number of images added so far
+     */
+    public int getNumOfFiles() {
+        return mNumOfFiles.get();
+    }
+
+    /**
+     * Walk the tree, blocking until done or cancelled. Call it from a background thread.
+     *
+     * @param dir
+     * @return the number of images added
+     */
+    public int importFolder(File dir) {
+        mCancelled = false;
+        mNumOfFiles.set(0);
+        ForkJoinPool pool = new ForkJoinPool(mNumOfThreads);
+        try {
+            pool.invoke(new DirectoryTask(dir.toPath()));
+        } finally {
+            pool.shutdown();
+        }
+        flush(true);
+
+        return mNumOfFiles.get();
+    }
+
+    private void add(ArrayList<File> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+
+        mNumOfFiles.addAndGet(files.size());
+        synchronized (this) {
+            mChunk.addAll(files);
+        }
+        flush(false);
+    }
+
+    private void flush(boolean all) {
+        ArrayList<File> chunk;
+        synchronized (this) {
+            if (mChunk.isEmpty() || (!all && mChunk.size() < CHUNK_SIZE)) {
+                return;
+            }
+            chunk = mChunk;
+            mChunk = new ArrayList<>(CHUNK_SIZE);
+        }
+
+        EventQueue.invokeLater(() -> {
+            mCollage.addFiles(chunk);
+        });
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final Path mDir;
+
+        DirectoryTask(Path dir) {
+            mDir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            if (mCancelled) {
+                return;
+            }
+
+            ArrayList<File> files = new ArrayList<>();
+            ArrayList<DirectoryTask> tasks = new ArrayList<>();
+            try {
+                Files.walkFileTree(mDir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                        //At the depth limit directories are visited as files
+                        if (attrs.isDirectory()) {
+                            DirectoryTask task = new DirectoryTask(path);
+                            task.fork();
+                            tasks.add(task);
+                        } else if (attrs.isRegularFile() && ImageSniffer.isImage(path.toFile())) {
+                            files.add(path.toFile());
+                        }
+
+                        return mCancelled ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException exc) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+
+            if (!files.isEmpty()) {
+                Collections.sort(files);
+                add(mCollage.filterDuplicates(files));
+            }
+
+            tasks.forEach((task) -> {
+                task.join();
+            });
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.awt.EventQueue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the file list of a {@link Collage} in sync with one or more directories
+ *
+ * Created, modified and deleted images are collected for a short window, the new and changed ones
+ * are told by {@link ImageSniffer}, probed and checked for duplicates in the background, and each
+ * batch is applied to the collage on the EDT with a single notification. Files that are still
+ * being written fail the probe and are skipped, they are picked up again by the modify event of
+ * the final write.
+ *
+ * Nothing is applied until {@link #start()} is called. A batch that fails unexpectedly is logged
+ * and dropped, the watching goes on.
+ *
+ * @author Patrik Karlsson
+ */
+public class FolderWatcher {
+
+    private static final long BATCH_WINDOW_MILLIS = 500;
+    private final Collage mCollage;
+    private final Map<WatchKey, Path> mDirs = new ConcurrentHashMap<>();
+    private final PhotoIngester mIngester = new PhotoIngester();
+    private final Thread mThread;
+    private final WatchService mWatchService;
+
+    public FolderWatcher(Collage collage) throws IOException {
+        mCollage = collage;
+        mWatchService = FileSystems.getDefault().newWatchService();
+        mIngester.setCache(PhotoCache.getInstance());
+
+        mThread = new Thread(this::run, "FolderWatcher");
+        mThread.setDaemon(true);
+    }
+
+    /**
+     * Stop watching all directories
+     */
+    public void close() {
+        mThread.interrupt();
+        try {
+            mWatchService.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Start applying changes to the collage, call it once
+     */
+    public void start() {
+        mThread.start();
+    }
+
+    /**
+     * Start watching a directory, images already in it are not added
+     *
+     * @param dir
+     * @throws IOException
+     */
+    public void watch(File dir) throws IOException {
+        Path path = dir.toPath();
+        WatchKey key = path.register(mWatchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        mDirs.put(key, path);
+    }
+
+    private void collect(WatchKey key, LinkedHashSet<File> changed, LinkedHashSet<File> removed, LinkedHashSet<File> rescanned) {
+        Path dir = mDirs.get(key);
+        if (dir != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    //Events were lost, compare the whole directory instead
+                    rescanned.add(dir.toFile());
+                    continue;
+                }
+
+                //Deleted files can't be told apart, and new ones may not be written yet, so they
+                //are sniffed once the batch is complete
+                File file = dir.resolve((Path) event.context()).toFile();
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    changed.remove(file);
+                    removed.add(file);
+                } else {
+                    removed.remove(file);
+                    changed.add(file);
+                }
+            }
+        }
+
+        if (!key.reset()) {
+            mDirs.remove(key);
+        }
+    }
+
+    /**
+     * Collect the events of a short window starting with key, then apply them to the collage
+     *
+     * @param key
+     * @throws InterruptedException
+     */
+    private void applyBatch(WatchKey key) throws InterruptedException {
+        LinkedHashSet<File> changed = new LinkedHashSet<>();
+        LinkedHashSet<File> removed = new LinkedHashSet<>();
+        LinkedHashSet<File> rescanned = new LinkedHashSet<>();
+
+        collect(key, changed, removed, rescanned);
+        long deadline = System.currentTimeMillis() + BATCH_WINDOW_MILLIS;
+        for (long wait = BATCH_WINDOW_MILLIS; wait > 0; wait = deadline - System.currentTimeMillis()) {
+            WatchKey nextKey = mWatchService.poll(wait, TimeUnit.MILLISECONDS);
+            if (nextKey != null) {
+                collect(nextKey, changed, removed, rescanned);
+            }
+        }
+
+        for (File dir : rescanned) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    changed.add(file);
+                }
+            }
+        }
+        changed.removeIf((file) -> !ImageSniffer.isImage(file));
+
+        ArrayList<Photo> readable = mIngester.ingest(new ArrayList<>(changed));
+        ArrayList<File> readableFiles = new ArrayList<>();
+        readable.forEach((photo) -> {
+            readableFiles.add(photo.getFile());
+        });
+        //Files already in the collage are rejected here too, they are the modified ones
+        HashSet<File> addedFiles = new HashSet<>(mCollage.filterDuplicates(readableFiles));
+        ArrayList<Photo> added = new ArrayList<>();
+        for (Photo photo : readable) {
+            if (addedFiles.contains(photo.getFile())) {
+                added.add(photo);
+            }
+        }
+
+        if (!readable.isEmpty() || !removed.isEmpty() || !rescanned.isEmpty()) {
+            EventQueue.invokeLater(() -> {
+                ArrayList<Photo> modified = new ArrayList<>();
+                for (Photo photo : readable) {
+                    if (!addedFiles.contains(photo.getFile()) && mCollage.containsFile(photo.getFile())) {
+                        modified.add(photo);
+                    }
+                }
+
+                ArrayList<File> removedFiles = new ArrayList<>(removed);
+                for (File file : mCollage.getFileList()) {
+                    if (rescanned.contains(file.getParentFile()) && !file.exists()) {
+                        removedFiles.add(file);
+                    }
+                }
+                mCollage.updateFiles(added, modified, removedFiles);
+            });
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = mWatchService.take();
+                try {
+                    applyBatch(key);
+                } catch (RuntimeException e) {
+                    //Don't let one bad batch stop the watching
+                    Logger.getLogger(FolderWatcher.class.getName()).log(Level.SEVERE, null, e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //Closed
+        }
+    }
+}
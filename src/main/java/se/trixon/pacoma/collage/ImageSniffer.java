@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tells supported images from other files by their first bytes instead of their extension
+ *
+ * @author Patrik Karlsson
+ */
+public class ImageSniffer {
+
+    private static final byte[] JPEG_MAGIC = new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG_MAGIC = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * Blocks on I/O, don't call it on the EDT
+     *
+     * @param file
+     * @return true if the file is a regular file starting as a JPEG or PNG image
+     */
+    public static boolean isImage(File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(PNG_MAGIC.length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+
+            return startsWith(buffer, JPEG_MAGIC) || startsWith(buffer, PNG_MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, byte[] magic) {
+        if (buffer.position() < magic.length) {
+            return false;
+        }
+
+        for (int i = 0; i < magic.length; i++) {
+            if (buffer.get(i) != magic[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private ImageSniffer() {
+    }
+}
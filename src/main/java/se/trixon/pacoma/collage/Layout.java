@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+/**
+ * Photos arranged in cells on a page by one of the layout engines
+ *
+ * Cells are identified by their position in the order the engine enumerates them, see
+ * {@link #getPhotos()}.
+ *
+ * @author Patrik Karlsson
+ */
+public abstract class Layout {
+
+    public enum Engine {
+        /**
+         * Photos in columns, some spanning two columns, see {@link Page}
+         */
+        COLUMNS,
+        /**
+         * Photos in justified rows keeping their order, see {@link RowLayout}
+         */
+        ROWS;
+    }
+
+    /**
+     * Returns an immutable copy of the current layout
+     *
+     * It must be taken by the thread that edits the layout, the snapshot itself can then be handed
+     * to any number of render threads.
+     *
+     * @return
+     */
+    public abstract PageSnapshot snapshot();
+
+    /**
+     * Add a photo without rebuilding the whole layout if the engine permits
+     *
+     * @param photo
+     * @return false if the layout is left untouched and has to be rebuilt by the caller
+     */
+    abstract boolean appendCell(Photo photo);
+
+    /**
+     * Returns the cost of the layout, lower is better
+     *
+     * It is the area cropped away from the photos relative to the page area, plus the relative
+     * deviation of the page ratio from the target ratio before the columns were shrunk to fit it.
+     *
+     * @return
+     */
+    abstract double getCost();
+
+    /**
+     *
+     * @return the photo of each cell
+     */
+    abstract Photo[] getPhotos();
+
+    /**
+     * Improve the photo placement by swapping photos between cells
+     *
+     * @param timeBudget in milliseconds
+     * @return the number of swaps made
+     */
+    abstract int optimize(long timeBudget);
+
+    /**
+     * Remove a photo without rebuilding the whole layout if the engine permits
+     *
+     * @param photo
+     * @return false if the layout is left untouched and has to be rebuilt by the caller
+     */
+    abstract boolean removeCell(Photo photo);
+
+    /**
+     * Put photos in cells, the cells are given by their position in {@link #getPhotos()}
+     *
+     * @param cells
+     * @param photos
+     */
+    abstract void setPhotos(int[] cells, Photo[] photos);
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Bounded undo/redo history of the layouts of a {@link UserCollage}
+ *
+ * Layouts are not copied. A generated layout is stored as its seed, ratio and photos, and every
+ * later change as a small edit: photos put in other cells, a photo added or a photo removed. The
+ * photos themselves are shared by all entries, and so is the array of them until it changes.
+ *
+ * Undoing or redoing a change of photos is done in place on the current page. When another
+ * generation is visited, the current page is parked behind a soft reference, so going back and
+ * forth between generations is O(1) as long as memory permits. Otherwise, and for added or removed
+ * photos which can not be undone in place, the page is regenerated from its seed and the edits
+ * are replayed.
+ *
+ * @author Patrik Karlsson
+ */
+class LayoutHistory {
+
+    static final int DEFAULT_SIZE = 100;
+    private final ArrayList<Edit> mEdits = new ArrayList<>();
+    private int mIndex = -1;
+    private final int mMaxSize;
+    private Layout mPage;
+    private final ArrayList<Photo> mPhotos;
+
+    /**
+     *
+     * @param photos the photo list of the collage, it is updated when moving in the history
+     * @param maxSize
+     */
+    LayoutHistory(ArrayList<Photo> photos, int maxSize) {
+        mPhotos = photos;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Record a generated page
+     *
+     * @param page
+     * @param engine
+     * @param seed
+     * @param ratio
+     * @param columnOffset
+     * @param adjustedPhotos the photos of the cells before the page was optimized, or null if it
+     * was not
+     */
+    void addGeneration(Layout page, Layout.Engine engine, long seed, double ratio, int columnOffset, Photo[] adjustedPhotos) {
+        park();
+        mPage = page;
+        Generation generation = new Generation(engine, seed, ratio, columnOffset, getPhotos());
+        if (adjustedPhotos != null) {
+            Photo[] optimizedPhotos = page.getPhotos();
+            generation.mOptimizedCells = getChangedCells(adjustedPhotos, optimizedPhotos);
+            generation.mOptimizedPhotos = getCellPhotos(optimizedPhotos, generation.mOptimizedCells);
+        }
+        add(generation);
+    }
+
+    /**
+     * Record a photo added to the current page, after it was added
+     *
+     * @param photo
+     * @param page the current page, which might have been rebuilt
+     */
+    void addPhoto(Photo photo, Layout page) {
+        mPage = page;
+        if (mIndex >= 0) {
+            add(new AddEdit(getGeneration(), photo));
+        }
+    }
+
+    /**
+     * Record a change of the photos of the current cells, see {@link Layout#getPhotos()}
+     *
+     * @param before the photos of the cells before the change
+     * @param after the photos of the cells after the change
+     */
+    void addPhotos(Photo[] before, Photo[] after) {
+        int[] cells = getChangedCells(before, after);
+
+        if (mIndex >= 0 && cells.length > 0) {
+            add(new PhotosEdit(getGeneration(), cells, getCellPhotos(before, cells), getCellPhotos(after, cells)));
+        }
+    }
+
+    /**
+     * Record a photo removed from the current page, after it was removed
+     *
+     * @param photo
+     * @param page the current page, which might have been rebuilt
+     */
+    void removePhoto(Photo photo, Layout page) {
+        mPage = page;
+        if (mIndex >= 0) {
+            add(new RemoveEdit(getGeneration(), photo));
+        }
+    }
+
+    int getColumnOffset() {
+        return getGeneration().mColumnOffset;
+    }
+
+    int getIndex() {
+        return Math.max(mIndex, 0);
+    }
+
+    Layout.Engine getEngine() {
+        return getGeneration().mEngine;
+    }
+
+    Layout getPage() {
+        return mPage;
+    }
+
+    double getRatio() {
+        return getGeneration().mRatio;
+    }
+
+    long getSeed() {
+        return getGeneration().mSeed;
+    }
+
+    int getSize() {
+        return mEdits.size();
+    }
+
+    boolean canRedo() {
+        return mIndex < mEdits.size() - 1;
+    }
+
+    boolean canUndo() {
+        return mIndex > 0;
+    }
+
+    void redo() {
+        if (canRedo()) {
+            moveTo(mIndex + 1);
+        }
+    }
+
+    void undo() {
+        if (canUndo()) {
+            moveTo(mIndex - 1);
+        }
+    }
+
+    private void add(Edit edit) {
+        //A new edit discards the redo tail
+        for (int i = mEdits.size() - 1; i > mIndex; i--) {
+            mEdits.remove(i);
+        }
+
+        mEdits.add(edit);
+        mIndex++;
+
+        //Evict whole generations, the oldest first, the current one is always kept
+        int evict = 0;
+        while (mEdits.size() - evict > mMaxSize) {
+            int next = evict + 1;
+            while (next <= mIndex && !(mEdits.get(next) instanceof Generation)) {
+                next++;
+            }
+            if (next > mIndex) {
+                break;
+            }
+            evict = next;
+        }
+
+        if (evict > 0) {
+            mEdits.subList(0, evict).clear();
+            mIndex -= evict;
+            for (Edit entry : mEdits) {
+                if (entry instanceof Generation) {
+                    ((Generation) entry).mParkedIndex -= evict;
+                }
+            }
+        }
+    }
+
+    private static int[] getChangedCells(Photo[] before, Photo[] after) {
+        int numOfChanges = 0;
+        int[] cells = new int[before.length];
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] != after[i]) {
+                cells[numOfChanges++] = i;
+            }
+        }
+
+        return Arrays.copyOf(cells, numOfChanges);
+    }
+
+    private static Photo[] getCellPhotos(Photo[] photos, int[] cells) {
+        Photo[] cellPhotos = new Photo[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            cellPhotos[i] = photos[cells[i]];
+        }
+
+        return cellPhotos;
+    }
+
+    /**
+     * The arrays are never modified, so the one of the current generation is shared as long as the
+     * photo list is the same, e.g. when a page is regenerated or parked without added or removed
+     * photos.
+     *
+     * @return the photo list as an array
+     */
+    private Photo[] getPhotos() {
+        if (mIndex >= 0) {
+            Photo[] photos = getGeneration().mPhotos;
+            if (photos.length == mPhotos.size()) {
+                int i = 0;
+                while (i < photos.length && photos[i] == mPhotos.get(i)) {
+                    i++;
+                }
+                if (i == photos.length) {
+                    return photos;
+                }
+            }
+        }
+
+        return mPhotos.toArray(new Photo[mPhotos.size()]);
+    }
+
+    private Generation getGeneration() {
+        return mEdits.get(mIndex).mGeneration;
+    }
+
+    private int indexOf(Generation generation) {
+        for (int i = mIndex; i >= 0; i--) {
+            if (mEdits.get(i) == generation) {
+                return i;
+            }
+        }
+
+        return mEdits.indexOf(generation);
+    }
+
+    private void moveTo(int index) {
+        Generation generation = mEdits.get(index).mGeneration;
+
+        if (generation != getGeneration()) {
+            park();
+            Parked parked = generation.mParked == null ? null : generation.mParked.get();
+            generation.mParked = null;
+
+            if (parked == null) {
+                rebuild(generation);
+            } else {
+                mPage = parked.page;
+                mPhotos.clear();
+                mPhotos.addAll(Arrays.asList(parked.photos));
+                mIndex = generation.mParkedIndex;
+            }
+        }
+
+        while (mIndex > index) {
+            if (!mEdits.get(mIndex).undo(this)) {
+                rebuild(generation);
+                break;
+            }
+            mIndex--;
+        }
+
+        while (mIndex < index) {
+            mIndex++;
+            mEdits.get(mIndex).redo(this);
+        }
+    }
+
+    private void park() {
+        if (mIndex >= 0 && mPage != null) {
+            Generation generation = getGeneration();
+            generation.mParked = new SoftReference<>(new Parked(mPage, getPhotos()));
+            generation.mParkedIndex = mIndex;
+        }
+    }
+
+    private void rebuild(Generation generation) {
+        mIndex = indexOf(generation);
+        generation.redo(this);
+    }
+
+    private static class Parked {
+
+        private final Layout page;
+        private final Photo[] photos;
+
+        Parked(Layout page, Photo[] photos) {
+            this.page = page;
+            this.photos = photos;
+        }
+    }
+
+    private static abstract class Edit {
+
+        Generation mGeneration;
+
+        abstract void redo(LayoutHistory history);
+
+        /**
+         *
+         * @param history
+         * @return false if the edit can not be undone in place
+         */
+        abstract boolean undo(LayoutHistory history);
+    }
+
+    private static class AddEdit extends Edit {
+
+        private final Photo mPhoto;
+
+        AddEdit(Generation generation, Photo photo) {
+            mGeneration = generation;
+            mPhoto = photo;
+        }
+
+        @Override
+        void redo(LayoutHistory history) {
+            history.mPhotos.add(mPhoto);
+            if (history.mPage != null && !history.mPage.appendCell(mPhoto)) {
+                history.mPage = UserCollage.createLayout(mGeneration.mEngine, history.mPhotos, mGeneration.mRatio, mGeneration.mSeed, mGeneration.mColumnOffset);
+            }
+        }
+
+        @Override
+        boolean undo(LayoutHistory history) {
+            return false;
+        }
+    }
+
+    private static class Generation extends Edit {
+
+        private final int mColumnOffset;
+        private final Layout.Engine mEngine;
+        /**
+         * The cells whose photos were swapped by the optimizer, or null
+         */
+        private int[] mOptimizedCells;
+        private Photo[] mOptimizedPhotos;
+        private SoftReference<Parked> mParked;
+        private int mParkedIndex;
+        private final Photo[] mPhotos;
+        private final double mRatio;
+        private final long mSeed;
+
+        Generation(Layout.Engine engine, long seed, double ratio, int columnOffset, Photo[] photos) {
+            mGeneration = this;
+            mEngine = engine;
+            mSeed = seed;
+            mRatio = ratio;
+            mColumnOffset = columnOffset;
+            mPhotos = photos;
+        }
+
+        @Override
+        void redo(LayoutHistory history) {
+            history.mPhotos.clear();
+            history.mPhotos.addAll(Arrays.asList(mPhotos));
+            history.mPage = UserCollage.createLayout(mEngine, history.mPhotos, mRatio, mSeed, mColumnOffset);
+            if (mOptimizedCells != null) {
+                history.mPage.setPhotos(mOptimizedCells, mOptimizedPhotos);
+            }
+        }
+
+        @Override
+        boolean undo(LayoutHistory history) {
+            return false;
+        }
+    }
+
+    private static class PhotosEdit extends Edit {
+
+        private final int[] mCells;
+        private final Photo[] mNewPhotos;
+        private final Photo[] mOldPhotos;
+
+        PhotosEdit(Generation generation, int[] cells, Photo[] oldPhotos, Photo[] newPhotos) {
+            mGeneration = generation;
+            mCells = cells;
+            mOldPhotos = oldPhotos;
+            mNewPhotos = newPhotos;
+        }
+
+        @Override
+        void redo(LayoutHistory history) {
+            history.mPage.setPhotos(mCells, mNewPhotos);
+        }
+
+        @Override
+        boolean undo(LayoutHistory history) {
+            history.mPage.setPhotos(mCells, mOldPhotos);
+            return true;
+        }
+    }
+
+    private static class RemoveEdit extends Edit {
+
+        private final Photo mPhoto;
+
+        RemoveEdit(Generation generation, Photo photo) {
+            mGeneration = generation;
+            mPhoto = photo;
+        }
+
+        @Override
+        void redo(LayoutHistory history) {
+            history.mPhotos.remove(mPhoto);
+            if (history.mPage != null && !history.mPage.removeCell(mPhoto)) {
+                history.mPage = history.mPhotos.isEmpty() ? null : UserCollage.createLayout(mGeneration.mEngine, history.mPhotos, mGeneration.mRatio, mGeneration.mSeed, mGeneration.mColumnOffset);
+            }
+        }
+
+        @Override
+        boolean undo(LayoutHistory history) {
+            return false;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package se.trixon.pacoma.collage;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Random;
@@ -26,9 +27,17 @@ import org.apache.commons.lang3.StringUtils;
  *
  * @author Patrik Karlsson
  */
-public class Page {
+public class Page extends Layout {
 
-    private final LinkedList<Column> mColumns = new LinkedList<>();
+    private CellIndex mCellIndex;
+    private Cell[] mCells;
+    private ColumnHeap mColumnHeap;
+    private final ArrayList<Column> mColumns = new ArrayList<>();
+    /**
+     * The cell of each photo, built on the first lookup like the cell index, and kept up to date
+     * from then on
+     */
+    private HashMap<Photo, Cell> mPhotoCells;
     /*
     Properties:
     <-------- w -------->
@@ -40,14 +49,25 @@ public class Page {
     |                    | |
     ---------------------- v
      */
+    private final Random mRandom;
+    /**
+     * Relative deviation of the page ratio from the target, measured before the column heights
+     * are adjusted since it is always about 0 afterwards
+     */
+    private double mRatioDeviation;
     private final double mTargetRatio;
 
-    Page(int w, double targetRatio, int numOfCols) {
+    Page(double w, double targetRatio, int numOfCols) {
+        this(w, targetRatio, numOfCols, new Random());
+    }
+
+    Page(double w, double targetRatio, int numOfCols, Random random) {
         mTargetRatio = targetRatio;
+        mRandom = random;
 
-        int colW = (int) Math.round(1.0 * w / numOfCols);
+        double colW = w / numOfCols;
         for (int i = 0; i < numOfCols; i++) {
-            mColumns.add(new Column(this, colW));
+            mColumns.add(new Column(this, i, colW));
         }
     }
 
@@ -80,7 +100,7 @@ public class Page {
                 for (String s : cells) {
                     w = Math.max(w, s.length());
                 }
-                if (col != mColumns.getLast()) {
+                if (col.getRightNeighbor() != null) {
                     w += 1;
                 }
                 String cell = StringUtils.repeat(" ", w);
@@ -99,19 +119,48 @@ public class Page {
     }
 
     private void addCellMultiColumn(Column column1, Column column2, Photo photo) {
-        LinkedList<Column> columnList = new LinkedList<>();
-        columnList.add(column1);
-        columnList.add(column2);
-        Cell cell = new Cell(photo, columnList);
+        Cell cell = new Cell(photo, column1, column2);
         Extent cellExtent = new Extent(cell);
-        column1.getCells().add(cell);
-        column2.getCells().add(cellExtent);
+        column1.addCell(cell);
+        column2.addCell(cellExtent);
+        if (mPhotoCells != null) {
+            mPhotoCells.put(photo, cell);
+        }
+        mColumnHeap.update(column1.getIndex(), column1.getHeight());
+        mColumnHeap.update(column2.getIndex(), column2.getHeight());
     }
 
     private void addCellSingleColumn(Column column, Photo photo) {
-        LinkedList<Column> columnList = new LinkedList<>();
-        columnList.add(column);
-        column.getCells().add(new Cell(photo, columnList));
+        Cell cell = new Cell(photo, column, null);
+        column.addCell(cell);
+        if (mPhotoCells != null) {
+            mPhotoCells.put(photo, cell);
+        }
+
+        if (mColumnHeap != null) {
+            mColumnHeap.update(column.getIndex(), column.getHeight());
+        }
+    }
+
+    /**
+     * Adjust the heights of the columns from first to last, and further to the right as long as
+     * resized extended cells move the extents in the next column.
+     *
+     * @param first
+     * @param last
+     */
+    private void adjustColumnHeights(Column first, Column last) {
+        double targetHeight = getWidth() * mTargetRatio;
+        Column column = first;
+
+        while (column != null) {
+            boolean extendedResized = column.adjustHeight(targetHeight);
+            if (!extendedResized && column.getIndex() >= last.getIndex()) {
+                break;
+            }
+
+            column = column.getRightNeighbor();
+        }
     }
 
     /**
@@ -120,34 +169,34 @@ public class Page {
     private void adjustColumnHeights() {
         double targetHeight = getWidth() * mTargetRatio;
         mColumns.forEach((column) -> {
-            column.adjustHeight((int) targetHeight);
+            column.adjustHeight(targetHeight);
         });
     }
 
-    private Cell getCellAtPosition(int x, int y) {
-        for (Column col : mColumns) {
-            if (x >= col.getX() && x < col.getX() + col.getWidth()) {
-                for (Cell cell : col.getCells()) {
-                    if (y >= cell.getY() && y < cell.getY() + cell.getHeight()) {
-                        if (cell.isExtension()) {
-                            return ((Extent) cell).getOrigin();
-                        } else {
-                            return cell;
-                        }
-                    }
-                }
-            }
-        }
+    /**
+     * Check if the hole left by cell can be closed by resizing its neighbors. It can't if the cell
+     * is alone in its group, or if it separates two extended cells (or an extended cell and the
+     * top or bottom of the page), since the cells between their extents would be squeezed to
+     * nothing.
+     *
+     * @param cell
+     * @return
+     */
+    private boolean canCloseHole(Cell cell) {
+        Cell top = cell.getTopNeighbor();
+        Cell bottom = cell.getBottomNeighbor();
+        boolean movableNeighbor = (top != null && !top.isExtension()) || (bottom != null && !bottom.isExtension());
+        boolean betweenExtended = (top == null || top.isExtended()) && (bottom == null || bottom.isExtended());
 
-        return null;
+        return movableNeighbor && !betweenExtended;
     }
 
-    private int getHeight() {
+    private double getHeight() {
         return mColumns
                 .stream()
-                .mapToInt(Column::getHeight)
+                .mapToDouble(Column::getHeight)
                 .max()
-                .getAsInt();
+                .getAsDouble();
     }
 
     /**
@@ -155,18 +204,15 @@ public class Page {
      * @return the column with lowest height
      */
     private Column getNextFreeColumn() {
-        int minHeight = mColumns
-                .stream()
-                .mapToInt(Column::getHeight)
-                .min()
-                .getAsInt();
-        ArrayList<Column> candidates = new ArrayList<>();
-
-        mColumns.stream().filter((column) -> (column.getHeight() == minHeight)).forEachOrdered((column) -> {
-            candidates.add(column);
-        });
+        if (mColumnHeap == null) {
+            double[] heights = new double[mColumns.size()];
+            for (int i = 0; i < heights.length; i++) {
+                heights[i] = mColumns.get(i).getHeight();
+            }
+            mColumnHeap = new ColumnHeap(heights);
+        }
 
-        return candidates.get(new Random().nextInt(candidates.size()));
+        return mColumns.get(mColumnHeap.getMin(mRandom));
     }
 
     private int getNumOfCols() {
@@ -174,7 +220,7 @@ public class Page {
     }
 
     private double getRatio() {
-        return 1.0 * getHeight() / getWidth();
+        return getHeight() / getWidth();
     }
 
     private double getWidth() {
@@ -210,8 +256,8 @@ public class Page {
         ---------------                           ---------------
          */
         for (Column col : mColumns) {
-            Cell cell = col.getCells().getLast();
-            if (cell == col.getCells().getFirst()) {
+            Cell cell = col.getLastCell();
+            if (cell == col.getFirstCell()) {
                 continue;
             }
 
@@ -223,22 +269,16 @@ public class Page {
                 if (cell.getTopNeighbor().isExtended() && cell.getTopNeighbor().getExtent().getBottomNeighbor() == null) {
                     //Extend cell to right
                     Extent extent = new Extent(cell);
-                    col.getRightNeighbor().getCells().add(extent);
-                    LinkedList<Column> parents = new LinkedList<>();
-                    parents.add(col);
-                    parents.add(col.getRightNeighbor());
-                    cell.setParents(parents);
+                    col.getRightNeighbor().addCell(extent);
+                    cell.setParents(col, col.getRightNeighbor());
                     //Case A2
                 } else if (cell.getTopNeighbor().isExtension() && cell.getTopNeighbor().getOrigin().getBottomNeighbor() == null) {
                     //Extend cell to left
-                    col.getCells().remove(cell);
-                    col.getLeftNeighbor().getCells().add(cell);
+                    col.removeCell(cell);
+                    col.getLeftNeighbor().addCell(cell);
                     Extent extent = new Extent(cell);
-                    col.getCells().add(extent);
-                    LinkedList<Column> parents = new LinkedList<>();
-                    parents.add(col.getLeftNeighbor());
-                    parents.add(col);
-                    cell.setParents(parents);
+                    col.addCell(extent);
+                    cell.setParents(col.getLeftNeighbor(), col);
                 }
 
                 //Case B
@@ -246,29 +286,24 @@ public class Page {
                 //the bottom cell should be placed right below the top one.
             } else if (cell.isExtended() && cell.getExtent().getBottomNeighbor() == null) {
                 //Case B1
-                if (cell.getExtent().getTopNeighbor().isExtended()
+                if (cell.getExtent().getTopNeighbor() != null
+                        && cell.getExtent().getTopNeighbor().isExtended()
                         && cell.getExtent().getTopNeighbor().getExtent().getBottomNeighbor() == null) {
                     //Move cell to right
-                    col.getCells().remove(cell);
-                    col.getRightNeighbor().getCells().remove(cell.getExtent());
-                    col.getRightNeighbor().getCells().add(cell);
-                    col.getRightNeighbor().getRightNeighbor().getCells().add(cell.getExtent());
-                    LinkedList<Column> parents = new LinkedList<>();
-                    parents.add(col.getRightNeighbor());
-                    parents.add(col.getRightNeighbor().getRightNeighbor());
-                    cell.setParents(parents);
+                    col.removeCell(cell);
+                    col.getRightNeighbor().removeCell(cell.getExtent());
+                    col.getRightNeighbor().addCell(cell);
+                    col.getRightNeighbor().getRightNeighbor().addCell(cell.getExtent());
+                    cell.setParents(col.getRightNeighbor(), col.getRightNeighbor().getRightNeighbor());
                     //Case B2
                 } else if (cell.getTopNeighbor().isExtension()
                         && cell.getTopNeighbor().getOrigin().getBottomNeighbor() == null) {
                     //Move cell to left
-                    col.getCells().remove(cell);
-                    col.getRightNeighbor().getCells().remove(cell.getExtent());
-                    col.getLeftNeighbor().getCells().add(cell);
-                    col.getCells().add(cell.getExtent());
-                    LinkedList<Column> parents = new LinkedList<>();
-                    parents.add(col.getLeftNeighbor());
-                    parents.add(col);
-                    cell.setParents(parents);
+                    col.removeCell(cell);
+                    col.getRightNeighbor().removeCell(cell.getExtent());
+                    col.getLeftNeighbor().addCell(cell);
+                    col.addCell(cell.getExtent());
+                    cell.setParents(col.getLeftNeighbor(), col);
                 }
             }
         }
@@ -281,26 +316,22 @@ public class Page {
                 iterator.remove();
             }
         }
+
+        for (int i = 0; i < mColumns.size(); i++) {
+            mColumns.get(i).setIndex(i);
+        }
     }
 
     private void scale(double alpha) {
+        mCellIndex = null;
+        mColumnHeap = null;
         mColumns.forEach((column) -> {
             column.scale(alpha);
         });
     }
 
     private void scaleToFit(double maxWidth, Double maxHeight) {
-        if (maxHeight == null || getWidth() * maxHeight > getHeight() * maxWidth) {
-            scale(maxWidth / getWidth());
-        } else {
-            scale(maxHeight / getHeight());
-        }
-    }
-
-    private void swapPhotos(Cell cell1, Cell cell2) {
-        Photo photo2 = cell2.getPhoto();
-        cell2.setPhoto(cell1.getPhoto());
-        cell1.setPhoto(photo2);
+        scale(getScaleToFit(maxWidth, maxHeight));
     }
 
     /**
@@ -310,11 +341,13 @@ public class Page {
      * @param photo
      */
     void addCell(Photo photo) {
+        mCellIndex = null;
+        mCells = null;
         Column col = getNextFreeColumn();
         Column left = col.getLeftNeighbor();
         Column right = col.getRightNeighbor();
 
-        if (2 * new Random().nextDouble() > photo.getRatio()) {
+        if (2 * mRandom.nextDouble() > photo.getRatio()) {
             if (left != null && Math.abs(col.getHeight() - left.getHeight()) < 0.5 * col.getWidth()) {
                 addCellMultiColumn(left, col, photo);
                 return;
@@ -327,16 +360,254 @@ public class Page {
         addCellSingleColumn(col, photo);
     }
 
+    /**
+     * Append a photo to an adjusted page without rebuilding it
+     *
+     * The photo is placed at the bottom of the column where the last group of cells has to shrink
+     * the least, then only that column is adjusted. Columns whose last group starts at the bottom
+     * of the page are skipped, and so are columns whose last group holds an extended cell, since
+     * resizing it would move its extent and leave a hole, or an overlap, in the column to the
+     * right.
+     *
+     * @param photo
+     * @return false if the page is left untouched because no column can take the photo
+     */
+    @Override
+    boolean appendCell(Photo photo) {
+        double targetHeight = getWidth() * mTargetRatio;
+        Column bestColumn = null;
+        double bestDeviation = Double.MAX_VALUE;
+
+        for (Column column : mColumns) {
+            ArrayList<Cell> cells = column.getCells();
+            int start = column.getLastGroupStart();
+            double y = start == 0 ? 0 : cells.get(start - 1).getY() + cells.get(start - 1).getHeight();
+            if (targetHeight - y <= 0) {
+                continue;
+            }
+
+            double height = column.getWidth() * photo.getRatio();
+            boolean extended = false;
+            for (int i = start; i < cells.size() && !extended; i++) {
+                height += cells.get(i).getHeight();
+                extended = cells.get(i).isExtended();
+            }
+            if (extended) {
+                continue;
+            }
+
+            double deviation = Math.abs(Math.log((targetHeight - y) / height));
+            if (bestColumn == null || deviation < bestDeviation) {
+                bestDeviation = deviation;
+                bestColumn = column;
+            }
+        }
+
+        if (bestColumn == null) {
+            return false;
+        }
+
+        mCellIndex = null;
+        mCells = null;
+        mColumnHeap = null;
+        addCellSingleColumn(bestColumn, photo);
+        bestColumn.adjustHeight(targetHeight);
+
+        return true;
+    }
+
     void adjust() {
+        mCellIndex = null;
+        mCells = null;
+        mColumnHeap = null;
         removeEmptyCols();
         removeBottomHoles();
+        mRatioDeviation = Math.abs(getRatio() - mTargetRatio) / mTargetRatio;
         adjustColumnHeights();
     }
 
-    LinkedList<Column> getColumns() {
+    /**
+     * Returns the cell at the position, using a spatial index that is built on the first lookup
+     * after the layout has changed.
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    Cell getCellAtPosition(double x, double y) {
+        if (mCellIndex == null) {
+            mCellIndex = new CellIndex(mColumns);
+        }
+
+        return mCellIndex.getCellAt(x, y);
+    }
+
+    /**
+     *
+     * @return the cells of the page column by column, without the extensions
+     */
+    Cell[] getCells() {
+        if (mCells == null) {
+            ArrayList<Cell> cells = new ArrayList<>();
+            for (Column column : mColumns) {
+                for (Cell cell : column.getCells()) {
+                    if (!cell.isExtension()) {
+                        cells.add(cell);
+                    }
+                }
+            }
+            mCells = cells.toArray(new Cell[cells.size()]);
+        }
+
+        return mCells;
+    }
+
+    /**
+     * Returns the cell of the photo, using a map that is built on the first lookup
+     *
+     * @param photo
+     * @return the cell, or null if the photo is not on the page
+     */
+    Cell getCell(Photo photo) {
+        if (mPhotoCells == null) {
+            Cell[] cells = getCells();
+            mPhotoCells = new HashMap<>(cells.length * 4 / 3 + 1);
+            for (Cell cell : cells) {
+                mPhotoCells.put(cell.getPhoto(), cell);
+            }
+        }
+
+        return mPhotoCells.get(photo);
+    }
+
+    ArrayList<Column> getColumns() {
         return mColumns;
     }
 
+    @Override
+    Photo[] getPhotos() {
+        Cell[] cells = getCells();
+        Photo[] photos = new Photo[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            photos[i] = cells[i].getPhoto();
+        }
+
+        return photos;
+    }
+
+    @Override
+    double getCost() {
+        double croppedArea = 0;
+        for (Column column : mColumns) {
+            for (Cell cell : column.getCells()) {
+                if (!cell.isExtension()) {
+                    croppedArea += cell.getCroppedArea();
+                }
+            }
+        }
+
+        return croppedArea / (getWidth() * getHeight()) + mRatioDeviation;
+    }
+
+    /**
+     * Returns the factor that would make the page fit in the given size, without scaling the page.
+     * Pass it to {@link Cell#getPixelBounds(double)} to materialize the normalized layout at any
+     * output size.
+     *
+     * @param maxWidth
+     * @param maxHeight may be null
+     * @return
+     */
+    double getScaleToFit(double maxWidth, Double maxHeight) {
+        if (maxHeight == null || getWidth() * maxHeight > getHeight() * maxWidth) {
+            return maxWidth / getWidth();
+        } else {
+            return maxHeight / getHeight();
+        }
+    }
+
+    @Override
+    int optimize(long timeBudget) {
+        return new PageOptimizer(this, mRandom).optimize(timeBudget);
+    }
+
+    /**
+     * Remove a photo from an adjusted page without rebuilding it
+     *
+     * The hole is closed by growing the other cells of its group, and of the group of its extent,
+     * then only the affected columns are adjusted.
+     *
+     * @param photo
+     * @return false if the page is left untouched because the hole can not be closed locally
+     */
+    @Override
+    boolean removeCell(Photo photo) {
+        Cell cell = getCell(photo);
+        if (cell == null
+                || !canCloseHole(cell)
+                || (cell.isExtended() && !canCloseHole(cell.getExtent()))) {
+            return false;
+        }
+
+        mCellIndex = null;
+        mCells = null;
+        mColumnHeap = null;
+        mPhotoCells.remove(photo);
+
+        Column column = cell.getColumn();
+        Column last = column;
+        column.removeCell(cell);
+        if (cell.isExtended()) {
+            last = cell.getExtent().getColumn();
+            last.removeCell(cell.getExtent());
+        }
+
+        adjustColumnHeights(column, last);
+
+        return true;
+    }
+
+    @Override
+    public PageSnapshot snapshot() {
+        Cell[] cells = getCells();
+        double[] xs = new double[cells.length];
+        double[] ys = new double[cells.length];
+        double[] widths = new double[cells.length];
+        double[] heights = new double[cells.length];
+        Photo[] photos = new Photo[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            xs[i] = cells[i].getX();
+            ys[i] = cells[i].getY();
+            widths[i] = cells[i].getWidth();
+            heights[i] = cells[i].getHeight();
+            photos[i] = cells[i].getPhoto();
+        }
+
+        return new PageSnapshot(getWidth(), getHeight(), xs, ys, widths, heights, photos);
+    }
+
+    @Override
+    void setPhotos(int[] cells, Photo[] photos) {
+        Cell[] pageCells = getCells();
+        for (int i = 0; i < cells.length; i++) {
+            Cell cell = pageCells[cells[i]];
+            cell.setPhoto(photos[i]);
+            if (mPhotoCells != null) {
+                mPhotoCells.put(photos[i], cell);
+            }
+        }
+    }
+
+    void swapPhotos(Cell cell1, Cell cell2) {
+        Photo photo2 = cell2.getPhoto();
+        cell2.setPhoto(cell1.getPhoto());
+        cell1.setPhoto(photo2);
+        if (mPhotoCells != null) {
+            mPhotoCells.put(cell1.getPhoto(), cell1);
+            mPhotoCells.put(cell2.getPhoto(), cell2);
+        }
+    }
+
 }
 /*
 class Page(object):
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulated annealing over photo swaps, minimizing the total cropped area of a page
+ *
+ * The cell geometry is left untouched, so the cost of a swap only depends on the two cells
+ * involved and is evaluated in O(1).
+ *
+ * @author Patrik Karlsson
+ */
+class PageOptimizer {
+
+    private static final int CLOCK_CHECK_INTERVAL = 256;
+    private final Cell[] mCells;
+    private final double[] mCosts;
+    private final Page mPage;
+    private final Random mRandom;
+
+    PageOptimizer(Page page, Random random) {
+        mPage = page;
+        mRandom = random;
+
+        mCells = page.getCells();
+        mCosts = new double[mCells.length];
+        for (int i = 0; i < mCells.length; i++) {
+            mCosts[i] = mCells[i].getCroppedArea();
+        }
+    }
+
+    /**
+     *
+     * @param timeBudget in milliseconds
+     * @return the number of swaps made
+     */
+    int optimize(long timeBudget) {
+        int numOfCells = mCells.length;
+        if (numOfCells < 2 || timeBudget <= 0) {
+            return 0;
+        }
+
+        double startTemperature = 0;
+        for (double cost : mCosts) {
+            startTemperature += cost;
+        }
+        startTemperature /= numOfCells;
+
+        long budget = TimeUnit.MILLISECONDS.toNanos(timeBudget);
+        long start = System.nanoTime();
+        double temperature = startTemperature;
+        int numOfSwaps = 0;
+
+        for (long i = 0;; i++) {
+            if (i % CLOCK_CHECK_INTERVAL == 0) {
+                long elapsed = System.nanoTime() - start;
+                if (elapsed >= budget) {
+                    break;
+                }
+                //Cool down linearly and spend the last fifth of the budget hill climbing
+                temperature = startTemperature * Math.max(0, 1 - 1.25 * elapsed / budget);
+            }
+
+            int a = mRandom.nextInt(numOfCells);
+            int b = mRandom.nextInt(numOfCells);
+            if (a == b) {
+                continue;
+            }
+
+            Cell cellA = mCells[a];
+            Cell cellB = mCells[b];
+            double costA = cellA.getCroppedArea(cellB.getPhoto());
+            double costB = cellB.getCroppedArea(cellA.getPhoto());
+            double delta = costA + costB - mCosts[a] - mCosts[b];
+
+            if (delta < 0 || (temperature > 0 && mRandom.nextDouble() < Math.exp(-delta / temperature))) {
+                mPage.swapPhotos(cellA, cellB);
+                mCosts[a] = costA;
+                mCosts[b] = costB;
+                numOfSwaps++;
+            }
+        }
+
+        return numOfSwaps;
+    }
+}
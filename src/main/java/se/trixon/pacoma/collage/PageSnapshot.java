@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Immutable, flattened copy of a {@link Layout}
+ *
+ * The cell bounds and content coordinates are held in primitive arrays that are owned by the
+ * snapshot, so any number of threads can read it without locking while the page keeps changing.
+ * Returned rectangles are new instances. The photos are to be decoded with {@link PhotoDecoder},
+ * which keeps each one within a pixel budget.
+ *
+ * @author Patrik Karlsson
+ */
+public final class PageSnapshot {
+
+    private final double[] mContentHeights;
+    private final double[] mContentWidths;
+    private final double[] mContentXs;
+    private final double[] mContentYs;
+    private final double mHeight;
+    private final double[] mHeights;
+    private final int mNumOfCells;
+    private final Photo[] mPhotos;
+    private final double mWidth;
+    private final double[] mWidths;
+    private final double[] mXs;
+    private final double[] mYs;
+
+    PageSnapshot(double width, double height, double[] xs, double[] ys, double[] widths, double[] heights, Photo[] photos) {
+        mWidth = width;
+        mHeight = height;
+        mNumOfCells = photos.length;
+        mXs = xs;
+        mYs = ys;
+        mWidths = widths;
+        mHeights = heights;
+        mPhotos = photos;
+        mContentXs = new double[mNumOfCells];
+        mContentYs = new double[mNumOfCells];
+        mContentWidths = new double[mNumOfCells];
+        mContentHeights = new double[mNumOfCells];
+
+        for (int i = 0; i < mNumOfCells; i++) {
+            Rectangle2D.Double content = Cell.getContentCoords(xs[i], ys[i], widths[i], heights[i], photos[i].getRatio());
+            mContentXs[i] = content.x;
+            mContentYs[i] = content.y;
+            mContentWidths[i] = content.width;
+            mContentHeights[i] = content.height;
+        }
+    }
+
+    /**
+     *
+     * @param index
+     * @return the bounds of the cell in page coordinates
+     */
+    public Rectangle2D.Double getBounds(int index) {
+        return new Rectangle2D.Double(mXs[index], mYs[index], mWidths[index], mHeights[index]);
+    }
+
+    /**
+     *
+     * @param index
+     * @return the coordinates of the uncropped photo in page coordinates, see
+     * {@link Cell#getContentCoords()}
+     */
+    public Rectangle2D.Double getContentCoords(int index) {
+        return new Rectangle2D.Double(mContentXs[index], mContentYs[index], mContentWidths[index], mContentHeights[index]);
+    }
+
+    public Rectangle getContentPixelBounds(int index, double scale) {
+        return Cell.snap(mContentXs[index], mContentYs[index], mContentWidths[index], mContentHeights[index], scale);
+    }
+
+    public double getHeight() {
+        return mHeight;
+    }
+
+    public int getNumOfCells() {
+        return mNumOfCells;
+    }
+
+    public Photo getPhoto(int index) {
+        return mPhotos[index];
+    }
+
+    /**
+     * Returns the cell bounds materialized at scale, see {@link Cell#getPixelBounds(double)}.
+     *
+     * @param index
+     * @param scale
+     * @return
+     */
+    public Rectangle getPixelBounds(int index, double scale) {
+        return Cell.snap(mXs[index], mYs[index], mWidths[index], mHeights[index], scale);
+    }
+
+    public double getWidth() {
+        return mWidth;
+    }
+}
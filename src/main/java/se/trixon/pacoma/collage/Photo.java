@@ -44,6 +44,10 @@ public class Photo {
         return mHeight;
     }
 
+    public long getNumOfPixels() {
+        return (long) mWidth * mHeight;
+    }
+
     public int getOrientation() {
         return mOrientation;
     }
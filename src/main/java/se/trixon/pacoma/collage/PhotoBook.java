@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Photos split over a number of pages, each page being an independent {@link UserCollage}
+ *
+ * The photos keep their order, page i gets the i:th chunk of the list, and all chunks have the
+ * same size give or take one photo.
+ *
+ * @author Patrik Karlsson
+ */
+public class PhotoBook {
+
+    private final ArrayList<UserCollage> mPages = new ArrayList<>();
+
+    /**
+     * Returns the number of cells per page that keeps the average cell at least minCellSize
+     * pixels wide and high in the output.
+     *
+     * @param collage
+     * @param minCellSize in pixels
+     * @return
+     */
+    public static int getCellsPerPage(Collage collage, int minCellSize) {
+        long pageArea = (long) collage.getWidth() * collage.getHeight();
+
+        return (int) Math.max(1, pageArea / ((long) minCellSize * minCellSize));
+    }
+
+    /**
+     *
+     * @param photos
+     * @param cellsPerPage the maximum number of photos on a page, at least 1
+     * @throws IllegalArgumentException if cellsPerPage is less than 1
+     */
+    public PhotoBook(List<Photo> photos, int cellsPerPage) {
+        if (cellsPerPage < 1) {
+            throw new IllegalArgumentException("cellsPerPage must be at least 1: " + cellsPerPage);
+        }
+
+        int numOfPhotos = photos.size();
+        int numOfPages = (numOfPhotos + cellsPerPage - 1) / cellsPerPage;
+
+        for (int i = 0; i < numOfPages; i++) {
+            int start = (int) ((long) i * numOfPhotos / numOfPages);
+            int end = (int) ((long) (i + 1) * numOfPhotos / numOfPages);
+            mPages.add(new UserCollage(new ArrayList<>(photos.subList(start, end))));
+        }
+    }
+
+    public int getNumOfPages() {
+        return mPages.size();
+    }
+
+    public UserCollage getPage(int index) {
+        return mPages.get(index);
+    }
+
+    public ArrayList<UserCollage> getPages() {
+        return mPages;
+    }
+
+    /**
+     *
+     * @return a snapshot of every page in page order, for rendering or exporting page by page
+     * @throws IllegalStateException if the pages haven't been made yet
+     */
+    public List<PageSnapshot> getSnapshots() {
+        return mPages
+                .stream()
+                .map((page) -> {
+                    if (page.getPage() == null) {
+                        throw new IllegalStateException("The pages must be made before they can be snapshot");
+                    }
+                    return page.getPage().snapshot();
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Make the layout of all pages concurrently, each page with its own seed
+     *
+     * @param collage
+     */
+    public void makePages(Collage collage) {
+        Random random = new Random();
+        long[] seeds = new long[mPages.size()];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = random.nextLong();
+        }
+
+        IntStream.range(0, mPages.size()).parallel().forEach((i) -> {
+            mPages.get(i).makePage(collage, seeds[i]);
+        });
+    }
+
+    /**
+     * Set the engine used by all pages
+     *
+     * @param engine
+     */
+    public void setEngine(Layout.Engine engine) {
+        mPages.forEach((page) -> {
+            page.setEngine(engine);
+        });
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.SystemUtils;
+
+/**
+ * Persistent cache of photo metadata, so reopened collages don't have to read their images again
+ *
+ * Width, height and orientation are stored keyed by the canonical path, and are only used if the
+ * size and last modified time of the file are unchanged. The cache is a compact binary file in the
+ * user's cache directory.
+ *
+ * Entries not used for half a year are dropped when the cache is saved, and so are the least
+ * recently used ones beyond 100 000, so the file doesn't grow without bound.
+ *
+ * @author Patrik Karlsson
+ */
+public class PhotoCache {
+
+    private static final int FILE_FORMAT_VERSION = 3;
+    private static final int MAGIC = 0x50434d43;
+    private static final int MAX_ENTRIES = 100_000;
+    private static final int MAX_UNUSED_DAYS = 180;
+    /**
+     * How stale the last use may get before it's updated, so hits don't rewrite the cache every time
+     */
+    private static final long LAST_USED_RESOLUTION = TimeUnit.DAYS.toMillis(1);
+    private volatile boolean mDirty = false;
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private final Path mPath;
+
+    public static PhotoCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static Path getDefaultPath() {
+        File dir;
+        if (SystemUtils.IS_OS_WINDOWS && System.getenv("LOCALAPPDATA") != null) {
+            dir = new File(System.getenv("LOCALAPPDATA"));
+        } else if (SystemUtils.IS_OS_MAC) {
+            dir = new File(SystemUtils.getUserHome(), "Library/Caches");
+        } else if (System.getenv("XDG_CACHE_HOME") != null) {
+            dir = new File(System.getenv("XDG_CACHE_HOME"));
+        } else {
+            dir = new File(SystemUtils.getUserHome(), ".cache");
+        }
+
+        return new File(dir, "pacoma/photos.cache").toPath();
+    }
+
+    /**
+     *
+     * @param path of the cache file, it's read if it exists
+     */
+    public PhotoCache(Path path) {
+        mPath = path;
+        try {
+            load();
+        } catch (IOException e) {
+            //A missing or unreadable cache is just empty
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * Returns the photo of the file, from the cache if the file is unchanged, otherwise by probing
+     * it with {@link PhotoProbe}. Cached dimensions are checked against the file size just like
+     * probed ones. Safe to call from multiple threads.
+     *
+     * @param file
+     * @return
+     * @throws IOException if the file had to be probed and couldn't be read, or if its dimensions
+     * can't fit in it
+     */
+    public Photo getPhoto(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        Entry entry = mEntries.get(key);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            //Entries may predate the check
+            PhotoDecoder.checkDeclaredSize(file, size, entry.width, entry.height);
+            long now = System.currentTimeMillis();
+            if (now - entry.lastUsed > LAST_USED_RESOLUTION) {
+                entry.lastUsed = now;
+                mDirty = true;
+            }
+
+            return new Photo(file, entry.width, entry.height, entry.orientation);
+        }
+
+        Photo photo = PhotoProbe.probe(file);
+        mEntries.put(key, new Entry(size, lastModified, photo.getWidth(), photo.getHeight(), photo.getOrientation(), System.currentTimeMillis()));
+        mDirty = true;
+
+        return photo;
+    }
+
+    /**
+     * Prune the cache and write it, if anything was added or used
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (!mDirty) {
+            return;
+        }
+        mDirty = false;
+
+        //Copy first, the map may change while writing
+        ArrayList<Map.Entry<String, Entry>> entries = new ArrayList<>(mEntries.entrySet());
+        long oldestLastUsed = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(MAX_UNUSED_DAYS);
+        ArrayList<Map.Entry<String, Entry>> prunedEntries = new ArrayList<>();
+        entries.removeIf((mapEntry) -> {
+            boolean unused = mapEntry.getValue().lastUsed < oldestLastUsed;
+            if (unused) {
+                prunedEntries.add(mapEntry);
+            }
+            return unused;
+        });
+
+        if (entries.size() > MAX_ENTRIES) {
+            entries.sort(Comparator.comparingLong((Map.Entry<String, Entry> mapEntry) -> mapEntry.getValue().lastUsed).reversed());
+            List<Map.Entry<String, Entry>> leastRecentlyUsed = entries.subList(MAX_ENTRIES, entries.size());
+            prunedEntries.addAll(leastRecentlyUsed);
+            leastRecentlyUsed.clear();
+        }
+
+        prunedEntries.forEach((mapEntry) -> {
+            mEntries.remove(mapEntry.getKey(), mapEntry.getValue());
+        });
+
+        Files.createDirectories(mPath.getParent());
+        Path tmpPath = mPath.resolveSibling(mPath.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(FILE_FORMAT_VERSION);
+            output.writeInt(entries.size());
+            for (Map.Entry<String, Entry> mapEntry : entries) {
+                Entry entry = mapEntry.getValue();
+                output.writeUTF(mapEntry.getKey());
+                output.writeLong(entry.size);
+                output.writeLong(entry.lastModified);
+                output.writeInt(entry.width);
+                output.writeInt(entry.height);
+                output.writeByte(entry.orientation);
+                output.writeLong(entry.lastUsed);
+            }
+        }
+
+        Files.move(tmpPath, mPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void load() throws IOException {
+        if (!Files.isRegularFile(mPath)) {
+            return;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(mPath)))) {
+            if (input.readInt() != MAGIC || input.readInt() != FILE_FORMAT_VERSION) {
+                return;
+            }
+
+            int numOfEntries = input.readInt();
+            for (int i = 0; i < numOfEntries; i++) {
+                String key = input.readUTF();
+                long size = input.readLong();
+                long lastModified = input.readLong();
+                int width = input.readInt();
+                int height = input.readInt();
+                int orientation = input.readByte();
+                long lastUsed = input.readLong();
+                mEntries.put(key, new Entry(size, lastModified, width, height, orientation, lastUsed));
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final int height;
+        private final long lastModified;
+        private volatile long lastUsed;
+        private final int orientation;
+        private final long size;
+        private final int width;
+
+        Entry(long size, long lastModified, int width, int height, int orientation, long lastUsed) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static class Holder {
+
+        private static final PhotoCache INSTANCE = new PhotoCache(getDefaultPath());
+    }
+}
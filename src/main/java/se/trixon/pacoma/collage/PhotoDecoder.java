@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes the pixels of a {@link Photo} within a pixel budget
+ *
+ * Photos larger than the budget are decoded with source subsampling, so only every n:th pixel of
+ * every n:th row is kept and the memory needed is bounded by the budget, not by the photo. The
+ * header is checked against the dimensions probed at ingest, and files declaring more pixels than
+ * their size can possibly hold are rejected before anything is decoded.
+ *
+ * Nothing in the application renders photos yet, so this is the entry point for the coming
+ * preview and export; until then only the ingest time check in {@link PhotoProbe} and
+ * {@link PhotoCache} is in effect.
+ *
+ * @author Patrik Karlsson
+ */
+public class PhotoDecoder {
+
+    public static final long DEFAULT_PIXEL_BUDGET = 16_000_000L;
+    /**
+     * Hard limit, beyond which even a subsampled decode takes too long
+     */
+    private static final long MAX_DECLARED_PIXELS = 1L << 30;
+    /**
+     * Deflate expands at most about 1032:1 and a pixel is at least one bit, so no PNG, and even
+     * less so a JPEG, holds more pixels per byte than this
+     */
+    private static final long MAX_PIXELS_PER_BYTE = 1032 * 8;
+
+    /**
+     * Decode the photo, without applying its orientation
+     *
+     * @param photo
+     * @return
+     * @throws IOException
+     */
+    public static BufferedImage decode(Photo photo) throws IOException {
+        return decode(photo, DEFAULT_PIXEL_BUDGET);
+    }
+
+    /**
+     * Decode the photo, without applying its orientation
+     *
+     * @param photo
+     * @param pixelBudget the maximum number of pixels of the decoded image
+     * @return the image, subsampled if the photo has more pixels than the budget
+     * @throws IOException if the file can't be read, or its header doesn't match the photo
+     */
+    public static BufferedImage decode(Photo photo, long pixelBudget) throws IOException {
+        File file = photo.getFile();
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                throw new IOException("Can't open " + file.getAbsolutePath());
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image " + file.getAbsolutePath());
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                checkDeclaredSize(file, width, height);
+
+                //The photo has the dimensions as displayed
+                boolean transposed = ExifOrientation.isTransposed(photo.getOrientation());
+                int expectedWidth = transposed ? photo.getHeight() : photo.getWidth();
+                int expectedHeight = transposed ? photo.getWidth() : photo.getHeight();
+                if (width != expectedWidth || height != expectedHeight) {
+                    throw new IOException(String.format("%s: the header says %dx%d, but %dx%d was probed",
+                            file.getAbsolutePath(), width, height, expectedWidth, expectedHeight));
+                }
+
+                int subsampling = getSubsampling(width, height, pixelBudget);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage image = reader.read(0, param);
+
+                if (image.getWidth() != divideRoundingUp(width, subsampling) || image.getHeight() != divideRoundingUp(height, subsampling)) {
+                    throw new IOException(String.format("%s: decoded %dx%d, expected %dx%d",
+                            file.getAbsolutePath(), image.getWidth(), image.getHeight(), divideRoundingUp(width, subsampling), divideRoundingUp(height, subsampling)));
+                }
+
+                return image;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     *
+     * @param width
+     * @param height
+     * @param pixelBudget
+     * @return the smallest subsampling that keeps the image within the budget
+     */
+    public static int getSubsampling(int width, int height, long pixelBudget) {
+        int subsampling = Math.max(1, (int) Math.sqrt((double) width * height / Math.max(1, pixelBudget)));
+        while (subsampling < Math.max(width, height)
+                && (long) divideRoundingUp(width, subsampling) * divideRoundingUp(height, subsampling) > pixelBudget) {
+            subsampling++;
+        }
+
+        return subsampling;
+    }
+
+    /**
+     * Reject dimensions the file can't hold, e.g. a decompression bomb or a truncated file
+     *
+     * @param file
+     * @param width
+     * @param height
+     * @throws IOException
+     */
+    static void checkDeclaredSize(File file, int width, int height) throws IOException {
+        checkDeclaredSize(file, file.length(), width, height);
+    }
+
+    /**
+     *
+     * @param file
+     * @param length the size of the file in bytes, if already known
+     * @param width
+     * @param height
+     * @throws IOException
+     */
+    static void checkDeclaredSize(File file, long length, int width, int height) throws IOException {
+        long numOfPixels = (long) width * height;
+        if (width <= 0 || height <= 0 || numOfPixels > MAX_DECLARED_PIXELS) {
+            throw new IOException(String.format("%s: unsupported size %dx%d", file.getAbsolutePath(), width, height));
+        } else if (numOfPixels > length * MAX_PIXELS_PER_BYTE) {
+            throw new IOException(String.format("%s: the header says %dx%d, which doesn't fit in %d bytes",
+                    file.getAbsolutePath(), width, height, length));
+        }
+    }
+
+    private static int divideRoundingUp(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    private PhotoDecoder() {
+    }
+}
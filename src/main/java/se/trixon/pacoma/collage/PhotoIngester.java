@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns a file list, e.g. {@link Collage#getFileList()}, into photos for a {@link UserCollage}
+ *
+ * The files are probed with {@link PhotoProbe}, or looked up in a {@link PhotoCache}, concurrently
+ * on a fixed number of threads. Files that can't be read are skipped and reported by
+ * {@link #getFailedFiles()}.
+ *
+ * @author Patrik Karlsson
+ */
+public class PhotoIngester {
+
+    private PhotoCache mCache;
+    private final List<File> mFailedFiles = Collections.synchronizedList(new ArrayList<>());
+    private final int mNumOfThreads;
+    private final List<File> mOversizedFiles = Collections.synchronizedList(new ArrayList<>());
+    private long mPixelBudget = PhotoDecoder.DEFAULT_PIXEL_BUDGET;
+    private ProgressListener mProgressListener;
+
+    public PhotoIngester() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     *
+     * @param numOfThreads the maximum number of files probed at once
+     */
+    public PhotoIngester(int numOfThreads) {
+        mNumOfThreads = Math.max(1, numOfThreads);
+    }
+
+    /**
+     *
+     * @return the files that could not be read by the last ingest
+     */
+    public ArrayList<File> getFailedFiles() {
+        synchronized (mFailedFiles) {
+            return new ArrayList<>(mFailedFiles);
+        }
+    }
+
+    /**
+     *
+     * @return the files of the last ingest with more pixels than the budget, they are kept but
+     * will be decoded subsampled
+     */
+    public ArrayList<File> getOversizedFiles() {
+        synchronized (mOversizedFiles) {
+            return new ArrayList<>(mOversizedFiles);
+        }
+    }
+
+    /**
+     * Probe all files, blocking until done
+     *
+     * @param files
+     * @return the photos of the readable files, in the order of files
+     * @throws InterruptedException if interrupted, the remaining files are not probed
+     */
+    public ArrayList<Photo> ingest(List<File> files) throws InterruptedException {
+        mFailedFiles.clear();
+        mOversizedFiles.clear();
+        int numOfFiles = files.size();
+        AtomicInteger numOfDone = new AtomicInteger();
+        int numOfThreads = Math.min(mNumOfThreads, Math.max(1, numOfFiles));
+        ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+
+        try {
+            ArrayList<Future<Photo>> futures = new ArrayList<>(numOfFiles);
+            for (File file : files) {
+                futures.add(executor.submit(() -> {
+                    Photo photo = null;
+                    try {
+                        photo = mCache == null ? PhotoProbe.probe(file) : mCache.getPhoto(file);
+                        if (photo.getNumOfPixels() > mPixelBudget) {
+                            mOversizedFiles.add(file);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        mFailedFiles.add(file);
+                    }
+
+                    ProgressListener progressListener = mProgressListener;
+                    int done = numOfDone.incrementAndGet();
+                    if (progressListener != null) {
+                        progressListener.onProgress(done, numOfFiles);
+                    }
+
+                    return photo;
+                }));
+            }
+
+            ArrayList<Photo> photos = new ArrayList<>(numOfFiles);
+            for (Future<Photo> future : futures) {
+                Photo photo = future.get();
+                if (photo != null) {
+                    photos.add(photo);
+                }
+            }
+
+            if (mCache != null) {
+                try {
+                    mCache.save();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+
+            return photos;
+        } catch (ExecutionException e) {
+            //Probe failures are caught in the task
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Use a metadata cache, so only new and changed files are probed, e.g.
+     * {@link PhotoCache#getInstance()}
+     *
+     * @param cache
+     */
+    public void setCache(PhotoCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     *
+     * @param pixelBudget the number of pixels above which files are reported as oversized
+     */
+    public void setPixelBudget(long pixelBudget) {
+        mPixelBudget = pixelBudget;
+    }
+
+    /**
+     * The listener is called from the probing threads, Swing code has to hand over to the EDT
+     *
+     * @param progressListener
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        mProgressListener = progressListener;
+    }
+
+    public interface ProgressListener {
+
+        void onProgress(int numOfDone, int numOfFiles);
+    }
+}
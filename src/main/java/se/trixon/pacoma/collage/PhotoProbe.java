@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Creates {@link Photo} objects from image files, the Java side of build_photolist() in
+ * render.py
+ *
+ * Only the image headers are read, pixels are never decoded. The dimensions are those of the
+ * photo as displayed, i.e. swapped if the EXIF orientation rotates it a quarter turn. Files
+ * declaring more pixels than they can hold are rejected, see {@link PhotoDecoder}.
+ *
+ * @author Patrik Karlsson
+ */
+public class PhotoProbe {
+
+    /**
+     *
+     * @param file
+     * @return a photo with the dimensions of the file
+     * @throws IOException if the file can't be read or isn't a supported image
+     */
+    public static Photo probe(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                throw new IOException("Can't open " + file.getAbsolutePath());
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image " + file.getAbsolutePath());
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                //Seek forward only and skip metadata, the dimensions are read from the header
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                PhotoDecoder.checkDeclaredSize(file, width, height);
+
+                int orientation = 0;
+                if ("jpeg".equalsIgnoreCase(reader.getFormatName())) {
+                    orientation = ExifOrientation.read(file);
+                }
+
+                if (ExifOrientation.isTransposed(orientation)) {
+                    return new Photo(file, height, width, orientation);
+                } else {
+                    return new Photo(file, width, height, orientation);
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private PhotoProbe() {
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Justified rows layout, suited for contact sheets and albums
+ *
+ * The photos keep their order and are split in rows by the linear partition of their aspect
+ * ratios, so all rows get as close as possible to the same aspect ratio sum. Each row is then
+ * scaled to the page width and the rows are stretched to the page height.
+ *
+ * @author Patrik Karlsson
+ */
+public class RowLayout extends Layout {
+
+    private double[] mHeights;
+    private final ArrayList<Photo> mPhotos;
+    private final double mTargetRatio;
+    private double[] mWidths;
+    private double[] mXs;
+    private double[] mYs;
+
+    RowLayout(List<Photo> photos, double targetRatio) {
+        mPhotos = new ArrayList<>(photos);
+        mTargetRatio = targetRatio;
+        layout();
+    }
+
+    @Override
+    public PageSnapshot snapshot() {
+        return new PageSnapshot(1, mTargetRatio, mXs, mYs, mWidths, mHeights, getPhotos());
+    }
+
+    @Override
+    boolean appendCell(Photo photo) {
+        mPhotos.add(photo);
+        layout();
+
+        return true;
+    }
+
+    @Override
+    double getCost() {
+        double croppedArea = 0;
+        for (int i = 0; i < mXs.length; i++) {
+            croppedArea += Cell.getCroppedArea(mWidths[i], mHeights[i], mPhotos.get(i).getRatio());
+        }
+
+        return croppedArea / mTargetRatio;
+    }
+
+    @Override
+    Photo[] getPhotos() {
+        return mPhotos.toArray(new Photo[mPhotos.size()]);
+    }
+
+    /**
+     * Rows keep the order of the photos, so there is nothing to swap
+     *
+     * @param timeBudget
+     * @return 0
+     */
+    @Override
+    int optimize(long timeBudget) {
+        return 0;
+    }
+
+    @Override
+    boolean removeCell(Photo photo) {
+        mPhotos.remove(photo);
+        layout();
+
+        return true;
+    }
+
+    /**
+     * Put photos in cells, which changes the order of the photos and thus the rows
+     *
+     * @param cells
+     * @param photos
+     */
+    @Override
+    void setPhotos(int[] cells, Photo[] photos) {
+        for (int i = 0; i < cells.length; i++) {
+            mPhotos.set(cells[i], photos[i]);
+        }
+        layout();
+    }
+
+    private void layout() {
+        int n = mPhotos.size();
+        mXs = new double[n];
+        mYs = new double[n];
+        mWidths = new double[n];
+        mHeights = new double[n];
+        if (n == 0) {
+            return;
+        }
+
+        double[] sums = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            sums[i + 1] = sums[i] + 1 / mPhotos.get(i).getRatio();
+        }
+
+        //A row with the aspect ratio sum a is 1 / a high, k rows of sum / k each fill the page when
+        //k * k / sum equals the target ratio
+        int numOfRows = (int) Math.round(Math.sqrt(sums[n] * mTargetRatio));
+        numOfRows = Math.max(1, Math.min(n, numOfRows));
+        int[] rowStarts = new LinearPartition(sums, numOfRows).getStarts();
+
+        double height = 0;
+        for (int row = 0; row < numOfRows; row++) {
+            height += 1 / (sums[rowStarts[row + 1]] - sums[rowStarts[row]]);
+        }
+        double stretch = mTargetRatio / height;
+
+        double y = 0;
+        for (int row = 0; row < numOfRows; row++) {
+            double rowSum = sums[rowStarts[row + 1]] - sums[rowStarts[row]];
+            double rowHeight = stretch / rowSum;
+            double x = 0;
+            for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++) {
+                double w = (sums[i + 1] - sums[i]) / rowSum;
+                mXs[i] = x;
+                mYs[i] = y;
+                mWidths[i] = w;
+                mHeights[i] = rowHeight;
+                x += w;
+            }
+            y += rowHeight;
+        }
+    }
+
+    /**
+     * Optimal linear partition of a sequence into k parts, minimizing the sum of the squared
+     * deviations of the part sums from their mean
+     *
+     * The cost of a part is a convex function of its sum, so it satisfies the quadrangle inequality
+     * and the candidate splits of each of the k layers of the dynamic program form a totally
+     * monotone matrix. Its row minima are found by SMAWK in O(n), so the partition takes O(n·k).
+     * The splits of every layer are kept to trace the parts back, which also takes O(n·k) memory.
+     */
+    private static class LinearPartition {
+
+        private double[] mCosts;
+        private final double mMean;
+        private final int mN;
+        private double[] mPrevCosts;
+        private int[] mRowSplits;
+        private final int[][] mSplits;
+        private final double[] mSums;
+
+        LinearPartition(double[] sums, int k) {
+            mSums = sums;
+            mN = sums.length - 1;
+            mMean = sums[mN] / k;
+            mSplits = new int[k + 1][];
+            mPrevCosts = new double[mN + 1];
+            mCosts = new double[mN + 1];
+
+            Arrays.fill(mPrevCosts, Double.POSITIVE_INFINITY);
+            mPrevCosts[0] = 0;
+            for (int row = 1; row <= k; row++) {
+                mRowSplits = new int[mN + 1];
+                mSplits[row] = mRowSplits;
+                Arrays.fill(mCosts, Double.POSITIVE_INFINITY);
+                //Leave at least one element for each of the following parts
+                int lastEnd = mN - (k - row);
+                solve(range(row, lastEnd), range(row - 1, lastEnd - 1));
+                double[] costs = mPrevCosts;
+                mPrevCosts = mCosts;
+                mCosts = costs;
+            }
+        }
+
+        /**
+         *
+         * @return the index of the first element of each part, followed by n
+         */
+        int[] getStarts() {
+            int k = mSplits.length - 1;
+            int[] starts = new int[k + 1];
+            starts[k] = mN;
+            for (int row = k; row > 0; row--) {
+                starts[row - 1] = mSplits[row][starts[row]];
+            }
+
+            return starts;
+        }
+
+        private static int[] range(int first, int last) {
+            int[] range = new int[Math.max(0, last - first + 1)];
+            for (int i = 0; i < range.length; i++) {
+                range[i] = first + i;
+            }
+
+            return range;
+        }
+
+        private double getCost(int start, int end) {
+            double deviation = mSums[end] - mSums[start] - mMean;
+            return deviation * deviation;
+        }
+
+        /**
+         *
+         * @param split
+         * @param end
+         * @return the cost of the previous parts up to split, followed by a part up to end
+         */
+        private double getTotalCost(int split, int end) {
+            if (split >= end || mPrevCosts[split] == Double.POSITIVE_INFINITY) {
+                return Double.POSITIVE_INFINITY;
+            }
+
+            return mPrevCosts[split] + getCost(split, end);
+        }
+
+        /**
+         * Find the best split of each end, the leftmost one on ties
+         *
+         * @param ends increasing
+         * @param splits increasing
+         */
+        private void solve(int[] ends, int[] splits) {
+            if (ends.length == 0) {
+                return;
+            }
+
+            //Reduce to at most one candidate split per end
+            int[] candidates = new int[Math.min(ends.length, splits.length)];
+            int numOfCandidates = 0;
+            for (int split : splits) {
+                while (numOfCandidates > 0) {
+                    int end = ends[numOfCandidates - 1];
+                    if (getTotalCost(candidates[numOfCandidates - 1], end) <= getTotalCost(split, end)) {
+                        break;
+                    }
+                    numOfCandidates--;
+                }
+                if (numOfCandidates < ends.length) {
+                    candidates[numOfCandidates++] = split;
+                }
+            }
+            candidates = Arrays.copyOf(candidates, numOfCandidates);
+
+            int[] oddEnds = new int[ends.length / 2];
+            for (int i = 0; i < oddEnds.length; i++) {
+                oddEnds[i] = ends[2 * i + 1];
+            }
+            solve(oddEnds, candidates);
+
+            //The best split of an even end lies between the ones of its neighbors
+            int c = 0;
+            for (int i = 0; i < ends.length; i += 2) {
+                int end = ends[i];
+                int lastSplit = i + 1 < ends.length ? mRowSplits[ends[i + 1]] : candidates[numOfCandidates - 1];
+                int bestSplit = candidates[c];
+                double bestCost = getTotalCost(bestSplit, end);
+                while (candidates[c] != lastSplit) {
+                    c++;
+                    double cost = getTotalCost(candidates[c], end);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestSplit = candidates[c];
+                    }
+                }
+
+                mRowSplits[end] = bestSplit;
+                mCosts[end] = bestCost;
+            }
+        }
+    }
+}
@@ -15,50 +15,411 @@
  */
 package se.trixon.pacoma.collage;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 /**
+ * The methods are synchronized, a page may be made in a worker while photos are added or removed
+ * on the EDT.
+ *
  * Based on work by Adrien Vergé in https://github.com/adrienverge/PhotoCollage
  *
  * @author Patrik Karlsson
  */
 public class UserCollage {
 
-    private Page mPage;
+    /**
+     * Time budget of the optimizer in milliseconds, for pages that are previewed
+     */
+    public static final long PREVIEW_TIME_BUDGET = 50;
+    /**
+     * Time budget of the optimizer in milliseconds, for pages that are exported
+     */
+    public static final long EXPORT_TIME_BUDGET = 2000;
+    private static final int COLUMN_SEARCH_RANGE = 2;
+    private int mColumnOffset;
+    private Layout.Engine mEngine = Layout.Engine.COLUMNS;
+    private final LayoutHistory mHistory;
+    private Layout mPage;
     private final ArrayList<Photo> mPhotos;
+    private double mRatio;
+    private long mSeed;
+    private long mTimeBudget = PREVIEW_TIME_BUDGET;
 
-    public UserCollage(ArrayList photos) {
+    public UserCollage(ArrayList<Photo> photos) {
         mPhotos = photos;
+        mHistory = new LayoutHistory(mPhotos, LayoutHistory.DEFAULT_SIZE);
     }
 
-    public void makePage(Collage collage) {
-        double ratio = 1.0 * collage.getHeight() / collage.getWidth();
+    /**
+     * Create a collage with a page that was built elsewhere, see {@link UserCollageBuilder}. The
+     * seed does not reproduce the page, so the history starts with the next generated page.
+     *
+     * @param photos
+     * @param page
+     * @param ratio
+     * @param seed
+     */
+    UserCollage(ArrayList<Photo> photos, Layout page, double ratio, long seed) {
+        this(photos);
+        mPage = page;
+        mRatio = ratio;
+        mSeed = seed;
+    }
+
+    /**
+     * Create a layout with the given engine. The seed and columnOffset only apply to
+     * {@link Layout.Engine#COLUMNS}.
+     *
+     * @param engine
+     * @param photos
+     * @param ratio
+     * @param seed
+     * @param columnOffset
+     * @return
+     */
+    static Layout createLayout(Layout.Engine engine, ArrayList<Photo> photos, double ratio, long seed, int columnOffset) {
+        switch (engine) {
+            case ROWS:
+                return new RowLayout(photos, ratio);
+
+            default:
+                return createPage(photos, ratio, seed, columnOffset);
+        }
+    }
+
+    /**
+     * Create a page whose number of columns deviates by columnOffset from the one estimated by
+     * {@link #getNumOfCols(ArrayList, double)}.
+     *
+     * @param photos
+     * @param ratio
+     * @param seed
+     * @param columnOffset
+     * @return
+     */
+    private static Page createPage(ArrayList<Photo> photos, double ratio, long seed, int columnOffset) {
+        Random random = new Random(seed);
+        int numOfCols = Math.max(1, getNumOfCols(photos, ratio) + columnOffset);
+
+        Page page = new Page(1, ratio, numOfCols, random);
 
-        double avg_ratio = mPhotos
+        //Shuffle a copy, the photo list order is part of the seed's input
+        ArrayList<Photo> shuffledPhotos = new ArrayList<>(photos);
+        Collections.shuffle(shuffledPhotos, random);
+
+        shuffledPhotos.forEach((photo) -> {
+            page.addCell(photo);
+        });
+        page.adjust();
+
+        return page;
+    }
+
+    private static int getNumOfCols(ArrayList<Photo> photos, double ratio) {
+        double avg_ratio = photos
                 .stream()
                 .mapToDouble(Photo::getRatio)
                 .average()
                 .getAsDouble();
 
+        return getNumOfCols(avg_ratio, photos.size(), ratio);
+    }
+
+    static int getNumOfCols(double avg_ratio, int numOfPhotos, double ratio) {
         /*
         # Virtual number of images: since ~ 1 image over 3 is in a multi-cell
         # (i.e. takes two columns), it takes the space of 4 images.
         # So it's equivalent to 1/3 * 4 + 2/3 = 2 times the number of images.
          */
-        int virtualNumOfImages = 2 * mPhotos.size();
-        int numOfCols = (int) Math.round(Math.sqrt(avg_ratio / ratio * virtualNumOfImages));
+        int virtualNumOfImages = 2 * numOfPhotos;
+        return Math.max(1, (int) Math.round(Math.sqrt(avg_ratio / ratio * virtualNumOfImages)));
+    }
+
+    /**
+     * Add a photo, the current page is updated in place if possible, otherwise it is rebuilt with
+     * the current seed. After an update in place the seed no longer reproduces the page.
+     *
+     * @param photo
+     */
+    public synchronized void addPhoto(Photo photo) {
+        mPhotos.add(photo);
+
+        if (mPage != null) {
+            if (!mPage.appendCell(photo)) {
+                mPage = createLayout(mEngine, mPhotos, mRatio, mSeed, mColumnOffset);
+            }
+            mHistory.addPhoto(photo, mPage);
+        }
+    }
 
-        mPage = new Page(1, ratio, numOfCols);
-        Collections.shuffle(mPhotos);
+    public synchronized boolean canRedo() {
+        return mHistory.canRedo();
+    }
+
+    public synchronized boolean canUndo() {
+        return mHistory.canUndo();
+    }
+
+    public synchronized int getHistoryIndex() {
+        return mHistory.getIndex();
+    }
 
+    public synchronized int getHistorySize() {
+        return mHistory.getSize();
+    }
+
+    /**
+     *
+     * @return the files of the photos, in the order of the photos
+     */
+    public synchronized ArrayList<File> getFiles() {
+        ArrayList<File> files = new ArrayList<>(mPhotos.size());
         mPhotos.forEach((photo) -> {
-            mPage.addCell(photo);
+            files.add(photo.getFile());
         });
-        mPage.adjust();
+
+        return files;
+    }
+
+    public synchronized Layout.Engine getEngine() {
+        return mEngine;
+    }
+
+    public synchronized Layout getPage() {
+        return mPage;
+    }
+
+    /**
+     *
+     * @return the seed of the current page, pass it to {@link #makePage(Collage, long)} to
+     * regenerate the same cells
+     */
+    public synchronized long getSeed() {
+        return mSeed;
+    }
+
+    public void makePage(Collage collage) {
+        makePage(collage, new Random().nextLong());
+    }
+
+    /**
+     * Make a page whose cells are fully determined by the photo list, the collage dimensions and
+     * the seed. The photos are then swapped between the cells by the optimizer, see
+     * {@link #setTimeBudget(long)}.
+     *
+     * @param collage
+     * @param seed
+     */
+    public synchronized void makePage(Collage collage, long seed) {
+        double ratio = getRatio(collage);
+        setGeneratedPage(createLayout(mEngine, mPhotos, ratio, seed, 0), seed, ratio, 0);
     }
 
-    //TODO Clone deep copy
+    /**
+     * Make pages with the estimated number of columns and up to two columns more or less
+     * concurrently, all with the same seed, and keep the one with the lowest
+     * {@link Layout#getCost()}. This helps with unusual mixes of photos, e.g. mostly panoramas or
+     * mostly portraits, where the estimate tends to be a column or two off. With
+     * {@link Layout.Engine#ROWS} a single page is made.
+     *
+     * @param collage
+     */
+    public synchronized void makeAdaptivePage(Collage collage) {
+        if (mEngine == Layout.Engine.ROWS) {
+            //The rows ignore the seed and the column offset, every candidate would be the same
+            makePage(collage);
+            return;
+        }
+
+        double ratio = getRatio(collage);
+        long seed = new Random().nextLong();
+        int numOfCols = getNumOfCols(mPhotos, ratio);
+
+        Candidate best = IntStream.rangeClosed(-COLUMN_SEARCH_RANGE, COLUMN_SEARCH_RANGE)
+                .filter((columnOffset) -> (numOfCols + columnOffset >= 1))
+                .parallel()
+                .mapToObj((columnOffset) -> new Candidate(seed, columnOffset, createLayout(mEngine, mPhotos, ratio, seed, columnOffset)))
+                .min(Comparator.comparingDouble((candidate) -> candidate.cost))
+                .get();
+
+        setGeneratedPage(best.page, seed, ratio, best.columnOffset);
+    }
+
+    /**
+     * Make a number of candidate pages concurrently, each one with its own seed, and keep the one
+     * with the lowest {@link Layout#getCost()}. With {@link Layout.Engine#ROWS} a single page is
+     * made.
+     *
+     * @param collage
+     * @param numOfCandidates at least 1
+     * @throws IllegalArgumentException if numOfCandidates is less than 1
+     */
+    public synchronized void makeBestPage(Collage collage, int numOfCandidates) {
+        if (numOfCandidates < 1) {
+            throw new IllegalArgumentException("numOfCandidates must be at least 1: " + numOfCandidates);
+        }
+
+        if (mEngine == Layout.Engine.ROWS) {
+            //The rows ignore the seed and the column offset, every candidate would be the same
+            makePage(collage);
+            return;
+        }
+
+        double ratio = getRatio(collage);
+        Random random = new Random();
+        long[] seeds = new long[numOfCandidates];
+        for (int i = 0; i < numOfCandidates; i++) {
+            seeds[i] = random.nextLong();
+        }
+
+        Candidate best = LongStream.of(seeds)
+                .parallel()
+                .mapToObj((seed) -> new Candidate(seed, 0, createLayout(mEngine, mPhotos, ratio, seed, 0)))
+                .min(Comparator.comparingDouble((candidate) -> candidate.cost))
+                .get();
+
+        setGeneratedPage(best.page, best.seed, ratio, 0);
+    }
+
+    /**
+     * Improve the current page by swapping photos between cells
+     *
+     * @param timeBudget in milliseconds, e.g. 50 for a preview and 2000 for the final export
+     */
+    public synchronized void optimizePage(long timeBudget) {
+        Photo[] before = mPage.getPhotos();
+        mPage.optimize(timeBudget);
+        mHistory.addPhotos(before, mPage.getPhotos());
+    }
+
+    /**
+     * Go forward to the next layout in the history
+     */
+    public synchronized void redo() {
+        mHistory.redo();
+        updateFromHistory();
+    }
+
+    /**
+     * Remove a photo, the current page is updated in place if possible, otherwise it is rebuilt
+     * with the current seed.
+     *
+     * @param photo
+     */
+    public synchronized void removePhoto(Photo photo) {
+        mPhotos.remove(photo);
+
+        if (mPage != null) {
+            if (!mPage.removeCell(photo)) {
+                mPage = mPhotos.isEmpty() ? null : createLayout(mEngine, mPhotos, mRatio, mSeed, mColumnOffset);
+            }
+            mHistory.removePhoto(photo, mPage);
+        }
+    }
+
+    /**
+     * Remove the photo of a file, see {@link #removePhoto(Photo)}
+     *
+     * @param file
+     * @return false if no photo has the file
+     */
+    public synchronized boolean removeFile(File file) {
+        for (Photo photo : mPhotos) {
+            if (file.equals(photo.getFile())) {
+                removePhoto(photo);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Set the engine used by the next generated layouts
+     *
+     * @param engine
+     */
+    public synchronized void setEngine(Layout.Engine engine) {
+        mEngine = engine;
+    }
+
+    /**
+     * Set the time budget of the optimizer run on every made page, the candidates of
+     * {@link #makeBestPage(Collage, int)} and {@link #makeAdaptivePage(Collage)} are compared
+     * before it.
+     *
+     * @param timeBudget in milliseconds, e.g. {@link #PREVIEW_TIME_BUDGET} or
+     * {@link #EXPORT_TIME_BUDGET}, 0 turns the optimizer off
+     */
+    public synchronized void setTimeBudget(long timeBudget) {
+        mTimeBudget = timeBudget;
+    }
+
+    /**
+     * Go back to the previous layout in the history, it is restored with its photos
+     */
+    public synchronized void undo() {
+        mHistory.undo();
+        updateFromHistory();
+    }
+
+    private double getRatio(Collage collage) {
+        return 1.0 * collage.getHeight() / collage.getWidth();
+    }
+
+    /**
+     * Optimize a generated page, make it the current one and record it as a new generation. The
+     * swaps of the optimizer depend on the time it gets, so they are recorded with the generation.
+     *
+     * @param page
+     * @param seed
+     * @param ratio
+     * @param columnOffset
+     */
+    private void setGeneratedPage(Layout page, long seed, double ratio, int columnOffset) {
+        Photo[] adjustedPhotos = null;
+        if (mTimeBudget > 0) {
+            adjustedPhotos = page.getPhotos();
+            if (page.optimize(mTimeBudget) == 0) {
+                adjustedPhotos = null;
+            }
+        }
+
+        mSeed = seed;
+        mRatio = ratio;
+        mColumnOffset = columnOffset;
+        mPage = page;
+        mHistory.addGeneration(mPage, mEngine, mSeed, mRatio, mColumnOffset, adjustedPhotos);
+    }
+
+    private void updateFromHistory() {
+        mPage = mHistory.getPage();
+        mSeed = mHistory.getSeed();
+        mRatio = mHistory.getRatio();
+        mColumnOffset = mHistory.getColumnOffset();
+        mEngine = mHistory.getEngine();
+    }
+
+    private static class Candidate {
+
+        private final int columnOffset;
+        private final double cost;
+        private final Layout page;
+        private final long seed;
+
+        Candidate(long seed, int columnOffset, Layout page) {
+            this.seed = seed;
+            this.columnOffset = columnOffset;
+            this.page = page;
+            cost = page.getCost();
+        }
+    }
 }
 /*
 class UserCollage(object):
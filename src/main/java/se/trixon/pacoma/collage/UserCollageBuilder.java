@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Builds a {@link UserCollage} from photos as they arrive, e.g. while files are still being
+ * probed, instead of from a complete list
+ *
+ * The number of columns depends on the number of photos and their average ratio, neither of which
+ * is known up front. The first photos are held back until a planning window is filled, then the
+ * columns are planned from the running average ratio and twice the number of photos seen, or the
+ * expected size if larger, and photos are placed with {@link Page#addCell(Photo)} as they come.
+ * Whenever the plan is outgrown by more than a column the page is rebuilt, which amounts to O(n)
+ * in total since the planned size doubles each time.
+ *
+ * Photos are placed in arrival order, so the seed does not reproduce the page.
+ *
+ * @author Patrik Karlsson
+ */
+public class UserCollageBuilder {
+
+    private static final int COLUMN_TOLERANCE = 1;
+    private static final int PLANNING_WINDOW = 32;
+    private int mExpectedSize;
+    private int mNumOfCols;
+    private Page mPage;
+    private final ArrayList<Photo> mPhotos = new ArrayList<>();
+    private int mPlannedSize;
+    private final double mRatio;
+    private double mRatioSum;
+    private final long mSeed;
+
+    public UserCollageBuilder(Collage collage) {
+        this(collage, new Random().nextLong());
+    }
+
+    public UserCollageBuilder(Collage collage, long seed) {
+        mRatio = 1.0 * collage.getHeight() / collage.getWidth();
+        mSeed = seed;
+    }
+
+    public void add(Photo photo) {
+        mPhotos.add(photo);
+        mRatioSum += photo.getRatio();
+
+        if (mPage != null && mPhotos.size() <= mPlannedSize) {
+            mPage.addCell(photo);
+        } else if (mPage != null || mPhotos.size() >= PLANNING_WINDOW) {
+            plan();
+        }
+    }
+
+    public void addAll(Iterator<Photo> photos) {
+        while (photos.hasNext()) {
+            add(photos.next());
+        }
+    }
+
+    public void addAll(Stream<Photo> photos) {
+        addAll(photos.iterator());
+    }
+
+    /**
+     * Finish the page, the builder must not be used afterwards
+     *
+     * @return
+     */
+    public UserCollage build() {
+        if (mPhotos.isEmpty()) {
+            return new UserCollage(mPhotos);
+        }
+
+        int numOfCols = getNumOfCols(mPhotos.size());
+        if (mPage == null || Math.abs(numOfCols - mNumOfCols) > COLUMN_TOLERANCE) {
+            rebuild(numOfCols);
+        }
+        mPage.adjust();
+
+        return new UserCollage(mPhotos, mPage, mRatio, mSeed);
+    }
+
+    /**
+     * Set the number of photos that are expected, e.g. the number of files found by a directory
+     * walk, which makes early planning more accurate
+     *
+     * @param expectedSize
+     */
+    public void setExpectedSize(int expectedSize) {
+        mExpectedSize = expectedSize;
+    }
+
+    private int getNumOfCols(int numOfPhotos) {
+        return UserCollage.getNumOfCols(mRatioSum / mPhotos.size(), numOfPhotos, mRatio);
+    }
+
+    private void plan() {
+        mPlannedSize = Math.max(mExpectedSize, 2 * mPhotos.size());
+        int numOfCols = getNumOfCols(mPlannedSize);
+
+        if (mPage == null || Math.abs(numOfCols - mNumOfCols) > COLUMN_TOLERANCE) {
+            rebuild(numOfCols);
+        } else {
+            mPage.addCell(mPhotos.get(mPhotos.size() - 1));
+        }
+    }
+
+    private void rebuild(int numOfCols) {
+        mNumOfCols = numOfCols;
+        mPage = new Page(1, mRatio, numOfCols, new Random(mSeed));
+        mPhotos.forEach((photo) -> {
+            mPage.addCell(photo);
+        });
+    }
+}
@@ -19,6 +19,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.util.HashSet;
+import java.util.ResourceBundle;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.ActionMap;
@@ -37,9 +38,11 @@ import se.trixon.almond.util.swing.dialogs.MenuModePanel;
  */
 public class ActionManager extends AlmondActionManager {
 
+    public static final String IMPORT_FOLDER = "import_folder";
     public static final String REGENERATE = "regenerate";
 
     private final HashSet<AppListener> mAppListeners = new HashSet<>();
+    private final ResourceBundle mBundleUI = SystemHelper.getBundle(ActionManager.class, "Bundle");
     private final HashSet<ProfileListener> mProfileListeners = new HashSet<>();
 
     public static ActionManager getInstance() {
@@ -437,6 +440,24 @@ public class ActionManager extends AlmondActionManager {
 
         initAction(action, ADD, keyStroke, MaterialIcon._Image.ADD_A_PHOTO, false);
 
+        //import folder
+        keyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_A, commandMask + InputEvent.SHIFT_DOWN_MASK);
+        action = new AlmondAction(mBundleUI.getString("import_folder")) {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                mProfileListeners.forEach((profileListener) -> {
+                    try {
+                        profileListener.onImportFolder(e);
+                    } catch (Exception exception) {
+                        Logger.getLogger(ActionManager.class.getName()).log(Level.SEVERE, null, exception);
+                    }
+                });
+            }
+        };
+
+        initAction(action, IMPORT_FOLDER, keyStroke, MaterialIcon._File.FOLDER_OPEN, false);
+
         return this;
     }
 
@@ -445,6 +466,7 @@ public class ActionManager extends AlmondActionManager {
             ADD,
             CLEAR,
             CLOSE,
+            IMPORT_FOLDER,
             PROPERTIES,
             REDO,
             REGENERATE,
@@ -486,6 +508,8 @@ public class ActionManager extends AlmondActionManager {
 
         void onEdit(ActionEvent actionEvent);
 
+        void onImportFolder(ActionEvent actionEvent);
+
         void onRegenerate(ActionEvent actionEvent);
 
         void onNew(ActionEvent actionEvent);
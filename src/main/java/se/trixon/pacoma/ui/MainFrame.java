@@ -29,23 +29,31 @@ import java.awt.event.MouseEvent;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.ActionMap;
+import javax.swing.JCheckBox;
 import javax.swing.ImageIcon;
 import javax.swing.InputMap;
 import javax.swing.JComponent;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JSeparator;
 import javax.swing.KeyStroke;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -64,6 +72,12 @@ import se.trixon.almond.util.swing.dialogs.about.AboutModel;
 import se.trixon.almond.util.swing.dialogs.about.AboutPanel;
 import se.trixon.pacoma.Pacoma;
 import se.trixon.pacoma.collage.Collage;
+import se.trixon.pacoma.collage.FolderImporter;
+import se.trixon.pacoma.collage.FolderWatcher;
+import se.trixon.pacoma.collage.Photo;
+import se.trixon.pacoma.collage.PhotoCache;
+import se.trixon.pacoma.collage.PhotoIngester;
+import se.trixon.pacoma.collage.UserCollage;
 
 /**
  *
@@ -82,8 +96,11 @@ public class MainFrame extends JFrame {
     private Collage mCollage = null;
     private final FileNameExtensionFilter mCollageFileNameExtensionFilter = new FileNameExtensionFilter(mBundleUI.getString("filter_collage"), Collage.FILE_EXT);
     private DropTarget mDropTarget;
+    private FolderWatcher mFolderWatcher;
     private final FileNameExtensionFilter mImageFileNameExtensionFilter = new FileNameExtensionFilter(mBundleUI.getString("filter_image"), "jpg", "png");
+    private final JMenuItem mImportFolderMenuItem = new JMenuItem();
     private Collage.CollagePropertyChangeListener mCollagePropertyChangeListener;
+    private boolean mRegenerating;
 
     /**
      * Creates new form MainFrame
@@ -108,11 +125,12 @@ public class MainFrame extends JFrame {
     public void open(File file) throws IOException {
         try {
             mCollage = Collage.open(file);
+            startFolderWatcher();
             mActionManager.setEnabledDocumentActions(true);
             mActionManager.getAction(ActionManager.SAVE).setEnabled(false);
             mCollage.addPropertyChangeListener(mCollagePropertyChangeListener);
             mActionManager.getAction(ActionManager.CLEAR).setEnabled(mCollage.hasImages());
-            mActionManager.getAction(ActionManager.REGENERATE).setEnabled(mCollage.hasImages());
+            mActionManager.getAction(ActionManager.REGENERATE).setEnabled(!mRegenerating && mCollage.hasImages());
             setTitle(mCollage);
             canvasPanel.open(mCollage);
         } catch (JsonSyntaxException e) {
@@ -126,7 +144,89 @@ public class MainFrame extends JFrame {
         initFileDialog(mImageFileNameExtensionFilter);
 
         if (SimpleDialog.openFile(true)) {
-            mCollage.addFiles(Arrays.asList(SimpleDialog.getPaths()));
+            List<File> files = Arrays.asList(SimpleDialog.getPaths());
+
+            //Probing and checking for duplicates reads the files, so keep it off the EDT
+            new SwingWorker<List<Photo>, Void>() {
+                @Override
+                protected List<Photo> doInBackground() throws Exception {
+                    PhotoIngester photoIngester = new PhotoIngester();
+                    photoIngester.setCache(PhotoCache.getInstance());
+                    ArrayList<Photo> photos = photoIngester.ingest(files);
+                    for (File file : photoIngester.getFailedFiles()) {
+                        System.err.println("Can't read " + file.getAbsolutePath());
+                    }
+
+                    ArrayList<File> readableFiles = new ArrayList<>();
+                    photos.forEach((photo) -> {
+                        readableFiles.add(photo.getFile());
+                    });
+                    HashSet<File> uniqueFiles = new HashSet<>(mCollage.filterDuplicates(readableFiles));
+                    photos.removeIf((photo) -> !uniqueFiles.contains(photo.getFile()));
+
+                    return photos;
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        mCollage.addPhotos(get());
+                    } catch (InterruptedException | ExecutionException ex) {
+                        System.err.println(ex.getMessage());
+                    }
+                }
+            }.execute();
+        }
+    }
+
+    private void importFolder() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle(mBundleUI.getString("import_folder"));
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        JCheckBox watchCheckBox = new JCheckBox(mBundleUI.getString("watch_folder"));
+        fileChooser.setAccessory(watchCheckBox);
+
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File dir = fileChooser.getSelectedFile();
+            //Watch before importing, so images created meanwhile aren't missed
+            if (watchCheckBox.isSelected() && mCollage.addWatchedFolder(dir) && mFolderWatcher != null) {
+                try {
+                    mFolderWatcher.watch(dir);
+                } catch (IOException ex) {
+                    System.err.println(ex.getMessage());
+                }
+            }
+            FolderImporter folderImporter = new FolderImporter(mCollage);
+            String progressFormat = mBundleUI.getString("import_folder_progress");
+            ProgressMonitor progressMonitor = new ProgressMonitor(this,
+                    mBundleUI.getString("import_folder"),
+                    String.format(progressFormat, 0),
+                    0, 1);
+
+            //The total is unknown, so show the number of images added so far
+            Timer timer = new Timer(200, (ActionEvent e) -> {
+                if (progressMonitor.isCanceled()) {
+                    folderImporter.cancel();
+                } else {
+                    progressMonitor.setNote(String.format(progressFormat, folderImporter.getNumOfFiles()));
+                    progressMonitor.setProgress(0);
+                }
+            });
+
+            new SwingWorker<Void, Void>() {
+                @Override
+                protected Void doInBackground() throws Exception {
+                    folderImporter.importFolder(dir);
+                    return null;
+                }
+
+                @Override
+                protected void done() {
+                    timer.stop();
+                    progressMonitor.close();
+                }
+            }.execute();
+            timer.start();
         }
     }
 
@@ -157,6 +257,7 @@ public class MainFrame extends JFrame {
             mCollage = collage;
 
             if (!existing) {
+                startFolderWatcher();
                 mActionManager.setEnabledDocumentActions(true);
                 mCollage.setName(String.format("%s %d", Dict.UNTITLED.toString(), ++sDocumentCounter));
             }
@@ -216,6 +317,8 @@ public class MainFrame extends JFrame {
         propertiesMenuItem.setAction(mActionManager.getAction(ActionManager.PROPERTIES));
         propertiesButton.setAction(mActionManager.getAction(ActionManager.PROPERTIES));
 
+        mImportFolderMenuItem.setAction(mActionManager.getAction(ActionManager.IMPORT_FOLDER));
+
         quitMenuItem.setAction(mActionManager.getAction(ActionManager.QUIT));
 
         //Edit
@@ -309,6 +412,7 @@ public class MainFrame extends JFrame {
             @Override
             public void onClose(ActionEvent actionEvent) {
                 setTitle("pacoma");
+                stopFolderWatcher();
                 mActionManager.setEnabledDocumentActions(false);
                 canvasPanel.close();
             }
@@ -318,9 +422,14 @@ public class MainFrame extends JFrame {
                 editCollage(mCollage);
             }
 
+            @Override
+            public void onImportFolder(ActionEvent actionEvent) {
+                importFolder();
+            }
+
             @Override
             public void onRegenerate(ActionEvent actionEvent) {
-                //TODO
+                regenerate();
             }
 
             @Override
@@ -361,9 +470,10 @@ public class MainFrame extends JFrame {
         mCollagePropertyChangeListener = () -> {
             if (mCollage != null) {
                 setTitle(mCollage);
-                mActionManager.getAction(ActionManager.SAVE).setEnabled(true);
+                mActionManager.getAction(ActionManager.SAVE).setEnabled(mCollage.isDirty());
                 mActionManager.getAction(ActionManager.CLEAR).setEnabled(mCollage.hasImages());
-                mActionManager.getAction(ActionManager.REGENERATE).setEnabled(mCollage.hasImages());
+                //The layout is made on the current UserCollage, so one regenerate at a time
+                mActionManager.getAction(ActionManager.REGENERATE).setEnabled(!mRegenerating && mCollage.hasImages());
             }
         };
 
@@ -372,32 +482,44 @@ public class MainFrame extends JFrame {
             public synchronized void drop(DropTargetDropEvent evt) {
                 try {
                     evt.acceptDrop(DnDConstants.ACTION_COPY);
-                    LinkedList<File> droppedFiles = new LinkedList<>((List<File>) evt.getTransferable().getTransferData(DataFlavor.javaFileListFlavor));
-                    List<File> invalidFiles = new LinkedList<>();
-
-                    droppedFiles.forEach((droppedFile) -> {
-                        if (droppedFile.isFile() && FilenameUtils.isExtension(droppedFile.getName().toLowerCase(Locale.getDefault()), Collage.FILE_EXT)) {
-                            //all ok
-                        } else {
-                            invalidFiles.add(droppedFile);
+                    List<File> droppedFiles = new ArrayList<>((List<File>) evt.getTransferable().getTransferData(DataFlavor.javaFileListFlavor));
+                    evt.dropComplete(true);
+
+                    //Validating may be slow, e.g. on a network share, so keep it off the EDT
+                    new SwingWorker<List<File>, Void>() {
+                        @Override
+                        protected List<File> doInBackground() throws Exception {
+                            List<File> collageFiles = new ArrayList<>();
+                            for (File droppedFile : droppedFiles) {
+                                if (FilenameUtils.isExtension(droppedFile.getName().toLowerCase(Locale.getDefault()), Collage.FILE_EXT)
+                                        && droppedFile.isFile()) {
+                                    collageFiles.add(droppedFile);
+                                }
+                            }
+
+                            return collageFiles;
                         }
-                    });
-
-                    invalidFiles.forEach((invalidFile) -> {
-                        droppedFiles.remove(invalidFile);
-                    });
 
-                    switch (droppedFiles.size()) {
-                        case 0:
-                            Message.error(MainFrame.this, Dict.Dialog.TITLE_IO_ERROR.toString(), "Not a valid collage file.");
-                            break;
-                        case 1:
-                            open(droppedFiles.getFirst());
-                            break;
-                        default:
-                            Message.error(MainFrame.this, Dict.Dialog.TITLE_IO_ERROR.toString(), "Too many files dropped.");
-                            break;
-                    }
+                        @Override
+                        protected void done() {
+                            try {
+                                List<File> collageFiles = get();
+                                switch (collageFiles.size()) {
+                                    case 0:
+                                        Message.error(MainFrame.this, Dict.Dialog.TITLE_IO_ERROR.toString(), "Not a valid collage file.");
+                                        break;
+                                    case 1:
+                                        open(collageFiles.get(0));
+                                        break;
+                                    default:
+                                        Message.error(MainFrame.this, Dict.Dialog.TITLE_IO_ERROR.toString(), "Too many files dropped.");
+                                        break;
+                                }
+                            } catch (InterruptedException | ExecutionException | IOException ex) {
+                                System.err.println(ex.getMessage());
+                            }
+                        }
+                    }.execute();
                 } catch (UnsupportedFlavorException | IOException ex) {
                     System.err.println(ex.getMessage());
                 }
@@ -428,6 +550,7 @@ public class MainFrame extends JFrame {
             mPopupMenu.add(saveAsMenuItem);
             mPopupMenu.add(new JSeparator());
             mPopupMenu.add(propertiesMenuItem);
+            mPopupMenu.add(mImportFolderMenuItem);
             mPopupMenu.add(new JSeparator());
 
             if (!IS_MAC) {
@@ -447,6 +570,7 @@ public class MainFrame extends JFrame {
 
         } else {
             setJMenuBar(menuBar);
+            fileMenu.add(mImportFolderMenuItem, fileMenu.getPopupMenu().getComponentIndex(propertiesMenuItem) + 1);
             if (IS_MAC) {
                 fileMenu.remove(quitMenuItem);
                 toolsMenu.remove(optionsMenuItem);
@@ -462,6 +586,91 @@ public class MainFrame extends JFrame {
         SwingHelper.clearToolTipText(mPopupMenu);
     }
 
+    private void regenerate() {
+        Collage collage = mCollage;
+        ArrayList<File> files = collage.getFileList();
+        //Keep the history if the photos are the same, the new layout is then a new generation of it.
+        //Photos added and removed since the last layout are in it already, unless they were
+        //imported in bulk.
+        UserCollage currentUserCollage = collage.getUserCollage();
+        if (currentUserCollage != null && !files.equals(currentUserCollage.getFiles())) {
+            currentUserCollage = null;
+        }
+
+        mRegenerating = true;
+        mActionManager.getAction(ActionManager.REGENERATE).setEnabled(false);
+        mActionManager.getAction(ActionManager.UNDO).setEnabled(false);
+        mActionManager.getAction(ActionManager.REDO).setEnabled(false);
+
+        String progressFormat = mBundleUI.getString("regenerate_progress");
+        ProgressMonitor progressMonitor = new ProgressMonitor(this,
+                Dict.REGENERATE.toString(),
+                String.format(progressFormat, 0, files.size()),
+                0, files.size());
+
+        new SwingWorker<UserCollage, Integer>() {
+            private List<File> mFailedFiles = new ArrayList<>();
+
+            @Override
+            protected UserCollage doInBackground() throws Exception {
+                UserCollage userCollage = currentUserCollage;
+                if (userCollage == null) {
+                    PhotoIngester photoIngester = new PhotoIngester();
+                    photoIngester.setCache(PhotoCache.getInstance());
+                    photoIngester.setProgressListener((int numOfDone, int numOfFiles) -> {
+                        publish(numOfDone);
+                    });
+                    ArrayList<Photo> photos = photoIngester.ingest(files);
+                    mFailedFiles = photoIngester.getFailedFiles();
+                    if (photos.isEmpty()) {
+                        return null;
+                    }
+                    userCollage = new UserCollage(photos);
+                }
+                userCollage.setEngine(collage.getEngine());
+                userCollage.makePage(collage);
+
+                return userCollage;
+            }
+
+            @Override
+            protected void process(List<Integer> chunks) {
+                int numOfDone = chunks.get(chunks.size() - 1);
+                progressMonitor.setNote(String.format(progressFormat, numOfDone, files.size()));
+                progressMonitor.setProgress(numOfDone);
+            }
+
+            @Override
+            protected void done() {
+                mRegenerating = false;
+                progressMonitor.close();
+                try {
+                    UserCollage userCollage = get();
+                    if (userCollage != null) {
+                        collage.setUserCollage(userCollage);
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    System.err.println(ex.getMessage());
+                }
+
+                if (!mFailedFiles.isEmpty()) {
+                    int result = JOptionPane.showConfirmDialog(MainFrame.this,
+                            String.format(mBundleUI.getString("remove_unreadable"), mFailedFiles.size()),
+                            Dict.Dialog.TITLE_IO_ERROR.toString(),
+                            JOptionPane.YES_NO_OPTION);
+
+                    if (result == JOptionPane.YES_OPTION) {
+                        //The layout never had them, so it matches the files afterwards
+                        collage.removeFiles(mFailedFiles);
+                    }
+                }
+
+                mActionManager.getAction(ActionManager.REGENERATE).setEnabled(mCollage.hasImages());
+                updateToolButtons();
+            }
+        }.execute();
+    }
+
     private void quit() {
         dispatchEvent(new WindowEvent(this, WindowEvent.WINDOW_CLOSING));
     }
@@ -528,11 +737,41 @@ public class MainFrame extends JFrame {
         }
     }
 
+    /**
+     * Keep the watched folders of the current collage in sync, the watcher of the previous collage
+     * is stopped
+     */
+    private void startFolderWatcher() {
+        stopFolderWatcher();
+
+        try {
+            mFolderWatcher = new FolderWatcher(mCollage);
+            for (File dir : mCollage.getWatchedFolders()) {
+                try {
+                    mFolderWatcher.watch(dir);
+                } catch (IOException ex) {
+                    //Moved or on a disconnected drive, it is kept in the collage
+                    System.err.println(ex.getMessage());
+                }
+            }
+            mFolderWatcher.start();
+        } catch (IOException ex) {
+            Logger.getLogger(MainFrame.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void stopFolderWatcher() {
+        if (mFolderWatcher != null) {
+            mFolderWatcher.close();
+            mFolderWatcher = null;
+        }
+    }
+
     private void updateToolButtons() {
         historyIndexLabel.setText(String.format("%d", mCollage.getHistoryIndex()));
 
-        mActionManager.getAction(ActionManager.UNDO).setEnabled(mCollage.getHistoryIndex() > 0);
-        mActionManager.getAction(ActionManager.REDO).setEnabled(mCollage.getHistoryIndex() < mCollage.getHistorySize());
+        mActionManager.getAction(ActionManager.UNDO).setEnabled(mCollage.hasPrevHistory());
+        mActionManager.getAction(ActionManager.REDO).setEnabled(mCollage.hasNextHistory());
         mActionManager.getAction(ActionManager.START).setEnabled(mCollage.hasImages());
     }
 
@@ -23,12 +23,15 @@ import java.awt.dnd.DropTarget;
 import java.awt.dnd.DropTargetDropEvent;
 import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
-import org.apache.commons.io.FilenameUtils;
+import javax.swing.SwingWorker;
 import se.trixon.almond.util.Scaler;
 import se.trixon.pacoma.collage.Collage;
+import se.trixon.pacoma.collage.ImageSniffer;
+import se.trixon.pacoma.collage.Photo;
+import se.trixon.pacoma.collage.PhotoCache;
 
 /**
  *
@@ -66,27 +69,38 @@ public class PagePanel extends javax.swing.JPanel {
             public synchronized void drop(DropTargetDropEvent evt) {
                 try {
                     evt.acceptDrop(DnDConstants.ACTION_COPY);
-                    LinkedList<File> droppedFiles = new LinkedList<>((List<File>) evt.getTransferable().getTransferData(DataFlavor.javaFileListFlavor));
-                    List<File> invalidFiles = new LinkedList<>();
-
-                    droppedFiles.forEach((droppedFile) -> {
-                        if (droppedFile.isFile() && FilenameUtils.isExtension(droppedFile.getName().toLowerCase(Locale.getDefault()), new String[]{"jpg", "jpeg", "png"})) {
-                            //all ok
-                        } else {
-                            invalidFiles.add(droppedFile);
+                    List<File> droppedFiles = new ArrayList<>((List<File>) evt.getTransferable().getTransferData(DataFlavor.javaFileListFlavor));
+                    evt.dropComplete(true);
+
+                    //Validating, probing and checking for duplicates may be slow, e.g. on a
+                    //network share, so keep it off the EDT
+                    new SwingWorker<Void, Photo>() {
+                        @Override
+                        protected Void doInBackground() throws Exception {
+                            PhotoCache photoCache = PhotoCache.getInstance();
+                            for (File droppedFile : droppedFiles) {
+                                if (ImageSniffer.isImage(droppedFile)) {
+                                    try {
+                                        Photo photo = photoCache.getPhoto(droppedFile);
+                                        if (!mCollage.filterDuplicates(Collections.singletonList(droppedFile)).isEmpty()) {
+                                            publish(photo);
+                                        }
+                                    } catch (IOException e) {
+                                        System.err.println(e.getMessage());
+                                    }
+                                }
+                            }
+                            photoCache.save();
+
+                            return null;
                         }
-                    });
 
-                    invalidFiles.forEach((invalidFile) -> {
-                        droppedFiles.remove(invalidFile);
-                        System.out.println("remomve invalid file: " + invalidFile.getAbsolutePath());
-                    });
-
-                    droppedFiles.forEach((droppedFile) -> {
-                        System.out.println("accept: " + droppedFile.getAbsolutePath());
-                    });
-
-                    mCollage.addFiles(droppedFiles);
+                        @Override
+                        protected void process(List<Photo> photos) {
+                            //Published photos are coalesced, so this is one notification per batch
+                            mCollage.addPhotos(photos);
+                        }
+                    }.execute();
                 } catch (UnsupportedFlavorException | IOException ex) {
                     System.err.println(ex.getMessage());
                 }
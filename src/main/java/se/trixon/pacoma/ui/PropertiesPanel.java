@@ -24,6 +24,7 @@ import org.apache.commons.lang3.StringUtils;
 import se.trixon.almond.util.Dict;
 import se.trixon.almond.util.SystemHelper;
 import se.trixon.pacoma.collage.Collage;
+import se.trixon.pacoma.collage.Layout;
 
 /**
  *
@@ -49,6 +50,7 @@ public class PropertiesPanel extends javax.swing.JPanel {
         mCollage.setHeight((int) heightSpinner.getValue());
         mCollage.setBorderThickness((double) thicknessSpinner.getValue() / 100);
         mCollage.setBorderColor(colorPanel.getColor());
+        mCollage.setEngine(Layout.Engine.values()[engineComboBox.getSelectedIndex()]);
     }
 
     private void init() {
@@ -71,6 +73,12 @@ public class PropertiesPanel extends javax.swing.JPanel {
 
         colorPanel.setColor(mCollage.getBorderColor());
         thicknessSpinner.setValue(mCollage.getBorderThickness() * 100);
+
+        engineComboBox.setModel(new DefaultComboBoxModel<>(new String[]{
+            mBundleUI.getString("engine_columns"),
+            mBundleUI.getString("engine_rows")
+        }));
+        engineComboBox.setSelectedIndex(mCollage.getEngine().ordinal());
     }
 
     /**
@@ -96,6 +104,8 @@ public class PropertiesPanel extends javax.swing.JPanel {
         colorPanel = new se.trixon.almond.util.swing.ColorPanel();
         jPanel1 = new javax.swing.JPanel();
         jLabel1 = new javax.swing.JLabel();
+        layoutLabel = new javax.swing.JLabel();
+        engineComboBox = new javax.swing.JComboBox<>();
 
         setLayout(new java.awt.GridBagLayout());
 
@@ -225,7 +235,7 @@ public class PropertiesPanel extends javax.swing.JPanel {
 
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 2;
-        gridBagConstraints.gridy = 8;
+        gridBagConstraints.gridy = 10;
         gridBagConstraints.weightx = 1.0;
         gridBagConstraints.weighty = 1.0;
         add(jPanel1, gridBagConstraints);
@@ -236,6 +246,24 @@ public class PropertiesPanel extends javax.swing.JPanel {
         gridBagConstraints.gridy = 6;
         gridBagConstraints.anchor = java.awt.GridBagConstraints.LINE_START;
         add(jLabel1, gridBagConstraints);
+
+        layoutLabel.setFont(layoutLabel.getFont().deriveFont(layoutLabel.getFont().getSize()+3f));
+        java.util.ResourceBundle bundle = java.util.ResourceBundle.getBundle("se/trixon/pacoma/ui/Bundle"); // NOI18N
+        layoutLabel.setText(bundle.getString("PropertiesPanel.layoutLabel.text")); // NOI18N
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 8;
+        gridBagConstraints.gridwidth = java.awt.GridBagConstraints.REMAINDER;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.LINE_START;
+        gridBagConstraints.insets = new java.awt.Insets(8, 0, 0, 0);
+        add(layoutLabel, gridBagConstraints);
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 9;
+        gridBagConstraints.gridwidth = java.awt.GridBagConstraints.REMAINDER;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+        add(engineComboBox, gridBagConstraints);
     }// </editor-fold>//GEN-END:initComponents
 
     private void templateComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_templateComboBoxActionPerformed
@@ -250,11 +278,13 @@ public class PropertiesPanel extends javax.swing.JPanel {
     private javax.swing.JLabel borderLabel;
     private javax.swing.JLabel colorLabel;
     private se.trixon.almond.util.swing.ColorPanel colorPanel;
+    private javax.swing.JComboBox<String> engineComboBox;
     private javax.swing.JLabel heightLabel;
     private javax.swing.JSpinner heightSpinner;
     private javax.swing.JLabel imageSizeLabel;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JPanel jPanel1;
+    private javax.swing.JLabel layoutLabel;
     private javax.swing.JComboBox<String> templateComboBox;
     private javax.swing.JLabel templateLabel;
     private javax.swing.JLabel thicknessLabel;
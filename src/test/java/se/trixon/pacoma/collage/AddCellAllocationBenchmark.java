@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import com.sun.management.ThreadMXBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Counts the bytes allocated by {@link Page#addCell(Photo)}
+ *
+ * Everything addCell allocates is kept by the page: the cell, the extent of an extended cell and
+ * the occasional growth of the column arrays. The map from photos to cells is only built on the
+ * first lookup. The bytes per call are printed next to the bytes of just a cell, and should stay
+ * close to them whatever the number of columns.
+ *
+ * Needs a HotSpot JVM, run it with
+ * {@code java -cp target/classes:target/test-classes se.trixon.pacoma.collage.AddCellAllocationBenchmark}
+ *
+ * @author Patrik Karlsson
+ */
+public class AddCellAllocationBenchmark {
+
+    private static final int NUM_OF_PHOTOS = 100_000;
+
+    public static void main(String[] args) throws IOException {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Photo[] photos = Benchmarks.createPhotos(NUM_OF_PHOTOS, 0).toArray(new Photo[NUM_OF_PHOTOS]);
+
+        System.out.println("columns  bytes/addCell  bytes/cell");
+        for (int numOfCols : new int[]{4, 16, 64, 256}) {
+            double bytesPerCall = Benchmarks.best(Benchmarks.NUM_OF_ROUNDS, (round) -> {
+                Page page = new Page(1, 0.7, numOfCols, new Random(round));
+                //The first call builds the column heap
+                page.addCell(photos[0]);
+
+                long start = threadMXBean.getThreadAllocatedBytes(threadId);
+                for (int i = 1; i < photos.length; i++) {
+                    page.addCell(photos[i]);
+                }
+
+                return (threadMXBean.getThreadAllocatedBytes(threadId) - start) / (photos.length - 1.0);
+            });
+
+            Column column = new Page(1, 0.7, numOfCols).getColumns().get(0);
+            double floorPerCall = Benchmarks.best(Benchmarks.NUM_OF_ROUNDS, (round) -> {
+                Cell[] cells = new Cell[photos.length];
+                long start = threadMXBean.getThreadAllocatedBytes(threadId);
+                for (int i = 1; i < photos.length; i++) {
+                    cells[i] = new Cell(photos[i], column, null);
+                }
+
+                return (threadMXBean.getThreadAllocatedBytes(threadId) - start) / (photos.length - 1.0);
+            });
+
+            System.out.println(String.format("%7d  %13.1f  %10.1f", numOfCols, bytesPerCall, floorPerCall));
+        }
+    }
+}
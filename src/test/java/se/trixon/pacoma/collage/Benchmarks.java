@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Shared parts of the benchmarks in this package
+ *
+ * @author Patrik Karlsson
+ */
+final class Benchmarks {
+
+    static final int NUM_OF_ROUNDS = 10;
+
+    /**
+     * Run a measurement a number of rounds and return the lowest result
+     *
+     * The first rounds warm up the JIT and, for file benchmarks, the page cache, so the lowest
+     * result is the one of a warm run and noise from other processes only ever adds to it.
+     *
+     * @param numOfRounds
+     * @param measurement
+     * @return
+     * @throws IOException
+     */
+    static double best(int numOfRounds, Measurement measurement) throws IOException {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < numOfRounds; round++) {
+            best = Math.min(best, measurement.measure(round));
+        }
+
+        return best;
+    }
+
+    /**
+     *
+     * @param numOfPhotos
+     * @param seed
+     * @return photos without files, 400-6000 pixels wide and 400-4000 pixels high
+     */
+    static ArrayList<Photo> createPhotos(int numOfPhotos, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Photo> photos = new ArrayList<>(numOfPhotos);
+        for (int i = 0; i < numOfPhotos; i++) {
+            photos.add(new Photo(null, 400 + random.nextInt(5600), 400 + random.nextInt(3600), 0));
+        }
+
+        return photos;
+    }
+
+    private Benchmarks() {
+    }
+
+    interface Measurement {
+
+        /**
+         *
+         * @param round the round, starting at 0
+         * @return the result of the round, lower is better
+         * @throws IOException
+         */
+        double measure(int round) throws IOException;
+    }
+}
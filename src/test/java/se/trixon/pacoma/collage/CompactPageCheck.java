@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import com.sun.management.ThreadMXBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks that {@link CompactPage} makes the same layout as {@link Page}, and compares what the two
+ * allocate
+ *
+ * For every number of photos and columns, both models are built from the same photos and seed.
+ * Their snapshots are compared cell by cell at the normalized width of 1, where the coordinates
+ * must be the same to the last bit. Up to {@value #MAX_ASCII_PHOTOS} photos, their ASCII art is
+ * compared too, at a page width of 1000 where it shows the rounded sizes. Exits with status 1 at
+ * the first difference.
+ *
+ * Needs a HotSpot JVM, run it with
+ * {@code java -cp target/classes:target/test-classes se.trixon.pacoma.collage.CompactPageCheck}
+ *
+ * @author Patrik Karlsson
+ */
+public class CompactPageCheck {
+
+    /**
+     * Page builds its ASCII art in quadratic time
+     */
+    private static final int MAX_ASCII_PHOTOS = 300;
+    private static final double RATIO = 2480.0 / 3508.0;
+
+    public static void main(String[] args) throws IOException {
+        int numOfLayouts = 0;
+        for (int numOfPhotos = 1; numOfPhotos <= 2000; numOfPhotos = numOfPhotos < 20 ? numOfPhotos + 1 : numOfPhotos * 3 / 2) {
+            ArrayList<Photo> photos = Benchmarks.createPhotos(numOfPhotos, numOfPhotos);
+            for (int numOfCols = 1; numOfCols <= 40; numOfCols = numOfCols < 8 ? numOfCols + 1 : numOfCols * 2) {
+                for (long seed = 0; seed < 5; seed++) {
+                    check(photos, numOfCols, seed);
+                    numOfLayouts++;
+                }
+            }
+        }
+        System.out.println(numOfLayouts + " layouts are identical");
+
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        System.out.println(" photos  bytes/photo Page  bytes/photo CompactPage");
+        for (int numOfPhotos : new int[]{1000, 10_000, 50_000}) {
+            ArrayList<Photo> photos = Benchmarks.createPhotos(numOfPhotos, numOfPhotos);
+            int numOfCols = UserCollage.getNumOfCols(1, numOfPhotos, RATIO);
+            double pageBytes = Benchmarks.best(Benchmarks.NUM_OF_ROUNDS, (round) -> {
+                long start = threadMXBean.getThreadAllocatedBytes(threadId);
+                Page page = new Page(1, RATIO, numOfCols, new Random(round));
+                photos.forEach(page::addCell);
+                page.adjust();
+
+                return (threadMXBean.getThreadAllocatedBytes(threadId) - start) / (double) numOfPhotos;
+            });
+            double compactPageBytes = Benchmarks.best(Benchmarks.NUM_OF_ROUNDS, (round) -> {
+                long start = threadMXBean.getThreadAllocatedBytes(threadId);
+                CompactPage page = new CompactPage(1, RATIO, numOfCols, new Random(round));
+                photos.forEach(page::addCell);
+                page.adjust();
+
+                return (threadMXBean.getThreadAllocatedBytes(threadId) - start) / (double) numOfPhotos;
+            });
+
+            System.out.println(String.format("%7d  %16.1f  %23.1f", numOfPhotos, pageBytes, compactPageBytes));
+        }
+    }
+
+    private static void check(ArrayList<Photo> photos, int numOfCols, long seed) {
+        for (double width : photos.size() <= MAX_ASCII_PHOTOS ? new double[]{1000, 1} : new double[]{1}) {
+            Page page = new Page(width, RATIO, numOfCols, new Random(seed));
+            CompactPage compactPage = new CompactPage(width, RATIO, numOfCols, new Random(seed));
+            photos.forEach((photo) -> {
+                page.addCell(photo);
+                compactPage.addCell(photo);
+            });
+            page.adjust();
+            compactPage.adjust();
+
+            String layout = String.format("%d photos, %d columns, seed %d", photos.size(), numOfCols, seed);
+            if (width > 1) {
+                if (!page.toString().equals(compactPage.toString())) {
+                    fail(layout + ", the ASCII art differs:\n" + page + "\n\n" + compactPage);
+                }
+            } else {
+                compare(layout, page.snapshot(), compactPage.snapshot());
+            }
+        }
+    }
+
+    private static void compare(String layout, PageSnapshot expected, PageSnapshot actual) {
+        if (expected.getNumOfCells() != actual.getNumOfCells()
+                || expected.getWidth() != actual.getWidth()
+                || expected.getHeight() != actual.getHeight()) {
+            fail(layout + ", the pages differ");
+        }
+
+        for (int i = 0; i < expected.getNumOfCells(); i++) {
+            if (!expected.getBounds(i).equals(actual.getBounds(i)) || expected.getPhoto(i) != actual.getPhoto(i)) {
+                fail(String.format("%s, cell %d differs: %s %s", layout, i, expected.getBounds(i), actual.getBounds(i)));
+            }
+        }
+    }
+
+    private static void fail(String message) {
+        System.err.println(message);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+
+/**
+ * Times {@link ExifOrientation#read(File)} per file
+ *
+ * Writes JPEG files with an EXIF orientation, half of them little and half big endian, to a
+ * temporary directory and reads them all back a number of rounds. The files are in the page cache
+ * after the first round, so the best round is the cost of the parse and the mapping, not the disk.
+ * It is done once with the APP1 segment right after APP0, and once after an ICC profile of
+ * {@value #NUM_OF_ICC_SEGMENTS} full APP2 segments, where the walk has to map further windows.
+ *
+ * Run it with
+ * {@code java -cp target/classes:target/test-classes se.trixon.pacoma.collage.ExifOrientationBenchmark}
+ *
+ * @author Patrik Karlsson
+ */
+public class ExifOrientationBenchmark {
+
+    private static final int NUM_OF_FILES = 2000;
+    private static final int NUM_OF_ICC_SEGMENTS = 3;
+
+    public static void main(String[] args) throws IOException {
+        File dir = Files.createTempDirectory("exif").toFile();
+        try {
+            byte[] jpeg = createJpeg();
+            for (int numOfIccSegments : new int[]{0, NUM_OF_ICC_SEGMENTS}) {
+                File[] files = new File[NUM_OF_FILES];
+                for (int i = 0; i < NUM_OF_FILES; i++) {
+                    files[i] = new File(dir, i + ".jpg");
+                    Files.write(files[i].toPath(), insertExif(jpeg, getOrientation(i), i % 2 == 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN, numOfIccSegments));
+                }
+
+                double nanos = Benchmarks.best(2 * Benchmarks.NUM_OF_ROUNDS, (round) -> {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < NUM_OF_FILES; i++) {
+                        if (ExifOrientation.read(files[i]) != getOrientation(i)) {
+                            throw new IllegalStateException("Wrong orientation read from " + files[i]);
+                        }
+                    }
+
+                    return System.nanoTime() - start;
+                });
+
+                System.out.println(String.format("%d files, %d APP2 segments before APP1, %.2f us/file", NUM_OF_FILES, numOfIccSegments, nanos / 1e3 / NUM_OF_FILES));
+            }
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static byte[] createJpeg() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "jpg", output);
+
+        return output.toByteArray();
+    }
+
+    private static int getOrientation(int index) {
+        return index % 8 + 1;
+    }
+
+    /**
+     * Insert an APP1 segment with an IFD0 holding just the orientation, after the APP0 segment
+     * written by ImageIO and the given number of APP2 segments of the largest size
+     *
+     * @param jpeg
+     * @param orientation
+     * @param byteOrder
+     * @param numOfIccSegments
+     * @return
+     */
+    private static byte[] insertExif(byte[] jpeg, int orientation, ByteOrder byteOrder, int numOfIccSegments) {
+        ByteBuffer tiff = ByteBuffer.allocate(26).order(byteOrder);
+        tiff.put(byteOrder == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.put(byteOrder == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.putShort((short) 42);
+        tiff.putInt(8);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        tiff.putInt(0);
+
+        ByteBuffer app1 = ByteBuffer.allocate(4 + 6 + tiff.capacity()).order(ByteOrder.BIG_ENDIAN);
+        app1.put((byte) 0xFF).put((byte) 0xE1).putShort((short) (app1.capacity() - 2));
+        app1.put(new byte[]{'E', 'x', 'i', 'f', 0, 0}).put(tiff.array());
+
+        ByteBuffer app2 = ByteBuffer.allocate(2 + 0xFFFF).order(ByteOrder.BIG_ENDIAN);
+        app2.put((byte) 0xFF).put((byte) 0xE2).putShort((short) 0xFFFF);
+
+        int app0End = 4 + (((jpeg[4] & 0xFF) << 8) | (jpeg[5] & 0xFF));
+        ByteBuffer result = ByteBuffer.allocate(jpeg.length + numOfIccSegments * app2.capacity() + app1.capacity());
+        result.put(jpeg, 0, app0End);
+        for (int i = 0; i < numOfIccSegments; i++) {
+            result.put(app2.array());
+        }
+        result.put(app1.array()).put(jpeg, app0End, jpeg.length - app0End);
+
+        return result.array();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Times the row layout against the column layout of the same photos
+ *
+ * Prints the time of each engine and the cost of its layout, the area cropped away relative to the
+ * page plus the deviation from the page ratio, lower is better.
+ *
+ * Run it with
+ * {@code java -cp target/classes:target/test-classes se.trixon.pacoma.collage.LayoutEngineBenchmark}
+ *
+ * @author Patrik Karlsson
+ */
+public class LayoutEngineBenchmark {
+
+    private static final double RATIO = 3508.0 / 2480.0;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println(" photos  engine          ms   us/photo    cost");
+        for (int numOfPhotos : new int[]{100, 1000, 10_000}) {
+            ArrayList<Photo> photos = Benchmarks.createPhotos(numOfPhotos, numOfPhotos);
+            for (Layout.Engine engine : Layout.Engine.values()) {
+                double cost = UserCollage.createLayout(engine, photos, RATIO, 0, 0).getCost();
+                double nanos = Benchmarks.best(Benchmarks.NUM_OF_ROUNDS, (round) -> {
+                    long start = System.nanoTime();
+                    UserCollage.createLayout(engine, photos, RATIO, round, 0);
+
+                    return System.nanoTime() - start;
+                });
+
+                System.out.println(String.format("%7d  %-7s  %9.2f  %9.2f  %6.3f", numOfPhotos, engine, nanos / 1e6, nanos / 1e3 / numOfPhotos, cost));
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Patrik Karlsson.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.pacoma.collage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Times the column layout of growing numbers of photos
+ *
+ * Each photo is placed in the shortest column, found in the column heap, and its neighbors are
+ * looked up in constant time, so the time per photo should stay roughly flat as the number of
+ * photos doubles. A quadratic step would show as a time per photo that doubles with it.
+ *
+ * Run it with
+ * {@code java -cp target/classes:target/test-classes se.trixon.pacoma.collage.LayoutScalingBenchmark}
+ *
+ * @author Patrik Karlsson
+ */
+public class LayoutScalingBenchmark {
+
+    private static final double RATIO = 3508.0 / 2480.0;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println(" photos  columns        ms  us/photo");
+        for (int numOfPhotos : new int[]{625, 1250, 2500, 5000, 10_000, 20_000, 40_000}) {
+            ArrayList<Photo> photos = Benchmarks.createPhotos(numOfPhotos, numOfPhotos);
+            int numOfCols = ((Page) UserCollage.createLayout(Layout.Engine.COLUMNS, photos, RATIO, 0, 0)).getColumns().size();
+            double nanos = Benchmarks.best(Benchmarks.NUM_OF_ROUNDS, (round) -> {
+                long start = System.nanoTime();
+                UserCollage.createLayout(Layout.Engine.COLUMNS, photos, RATIO, round, 0);
+
+                return System.nanoTime() - start;
+            });
+
+            System.out.println(String.format("%7d  %7d  %8.2f  %8.2f", numOfPhotos, numOfCols, nanos / 1e6, nanos / 1e3 / numOfPhotos));
+        }
+    }
+}